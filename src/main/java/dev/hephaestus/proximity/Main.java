@@ -8,8 +8,10 @@ import dev.hephaestus.proximity.cards.CardPrototype;
 import dev.hephaestus.proximity.plugins.PluginHandler;
 import dev.hephaestus.proximity.plugins.TaskHandler;
 import dev.hephaestus.proximity.templates.*;
+import dev.hephaestus.proximity.util.ExceptionUtil;
 import dev.hephaestus.proximity.util.Pair;
 import dev.hephaestus.proximity.util.ParsingUtil;
+import dev.hephaestus.proximity.util.RemoteFileCache;
 import dev.hephaestus.proximity.util.Result;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
@@ -19,6 +21,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -27,6 +30,16 @@ public class Main {
     public static Pattern LINE = Pattern.compile("^(?:(?<count>\\d+[xX]?) )?(?<name>.+?)(?: \\((?<set>.+)\\)(?: (?<collector>[a-zA-Z0-9]+?))?)?(?: (?<options>--.+))*?$");
 
     public static void main(String[] argArray) {
+        if (argArray.length > 0 && argArray[0].equals("cache")) {
+            runCacheCommand(argArray);
+            return;
+        }
+
+        if (argArray.length > 0 && argArray[0].equals("compile-template")) {
+            compileTemplate(argArray);
+            return;
+        }
+
         Pair<JsonObject, JsonObject> args = parseArgs(argArray);
 
         JsonObject options = args.left();
@@ -55,6 +68,62 @@ public class Main {
         }
     }
 
+    /**
+     * Handles {@code cache stats} and {@code cache prune}, which report on and trim the remote file cache.
+     */
+    private static void runCacheCommand(String[] argArray) {
+        String command = argArray.length > 1 ? argArray[1] : "stats";
+        JsonObject options = parseArgs(Arrays.copyOfRange(argArray, Math.min(2, argArray.length), argArray.length)).left();
+
+        try {
+            RemoteFileCache cache = RemoteFileCache.load();
+            long limit = options.has("cache_size") ? options.getAsInt("cache_size") * 1024L * 1024L : Long.MAX_VALUE;
+
+            switch (command) {
+                case "stats" -> {
+                    RemoteFileCache.Stats stats = cache.getStats();
+
+                    System.out.printf("Entries: %d%n", stats.entries());
+                    System.out.printf("Files: %d%n", stats.files());
+                    System.out.printf("Size: %.1f MB%n", stats.size() / (1024D * 1024D));
+                    System.out.printf("Saved by sharing identical files: %.1f MB%n", (stats.referenced() - stats.size()) / (1024D * 1024D));
+
+                    if (limit != Long.MAX_VALUE) {
+                        System.out.printf("Limit: %.1f MB%n", limit / (1024D * 1024D));
+                    }
+                }
+                case "prune" -> {
+                    // Setting the limit is what evicts, so it's only applied when asked to prune.
+                    cache.setLimit(limit);
+                    System.out.printf("Freed %.1f MB%n", cache.prune() / (1024D * 1024D));
+                }
+                default -> Proximity.LOG.error("Unknown cache command '{}', expected 'stats' or 'prune'", command);
+            }
+        } catch (IOException e) {
+            Proximity.LOG.error("Failed to open the remote file cache: {}", ExceptionUtil.getErrorMessage(e));
+        }
+    }
+
+    /**
+     * Handles {@code compile-template <template> [output]}, which compiles a template in the templates folder into a
+     * bundle that can be used in its place.
+     */
+    private static void compileTemplate(String[] argArray) {
+        if (argArray.length < 2) {
+            Proximity.LOG.error("Usage: compile-template <template> [output]");
+            return;
+        }
+
+        Path templates = Path.of("templates");
+        String name = argArray[1].endsWith(".zip") ? argArray[1].substring(0, argArray[1].length() - 4) : argArray[1];
+        Path output = argArray.length > 2 ? Path.of(argArray[2]) : templates.resolve(name + ".bundle");
+        long start = System.currentTimeMillis();
+
+        TemplateCompiler.compile(templates.resolve(argArray[1]), output)
+                .ifPresent(path -> Proximity.LOG.info("Compiled {} in {}ms", path, System.currentTimeMillis() - start))
+                .ifError(e -> Proximity.LOG.error(e));
+    }
+
     private static Result<Deque<CardPrototype>> loadCardsFromFile(JsonObject options, JsonObject overrides, String defaultTemplate, TemplateLoader... templateLoaders) {
         Deque<CardPrototype> result = new ArrayDeque<>();
 
@@ -13,8 +13,8 @@ import dev.hephaestus.proximity.plugins.Plugin;
 import dev.hephaestus.proximity.plugins.PluginHandler;
 import dev.hephaestus.proximity.plugins.TaskHandler;
 import dev.hephaestus.proximity.plugins.util.Artifact;
+import dev.hephaestus.proximity.templates.AssetPackSource;
 import dev.hephaestus.proximity.templates.LayerRegistry;
-import dev.hephaestus.proximity.templates.RemoteFileSource;
 import dev.hephaestus.proximity.templates.TemplateSource;
 import dev.hephaestus.proximity.util.*;
 import dev.hephaestus.proximity.xml.LayerRenderer;
@@ -23,7 +23,6 @@ import dev.hephaestus.proximity.xml.XMLUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.quiltmc.json5.JsonReader;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -86,6 +85,10 @@ public final class Proximity {
 
         try {
             this.cache = RemoteFileCache.load();
+
+            if (options.has("cache_size")) {
+                this.cache.setLimit(options.getAsInt("cache_size") * 1024L * 1024L);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -105,6 +108,8 @@ public final class Proximity {
         if (!result.isError()) {
             LOG.info("Done! Took {}ms", System.currentTimeMillis() - startTime);
         }
+
+        Metrics.log();
     }
 
     private Result<Deque<RenderableData>> getCardInfo(Deque<CardPrototype> prototypes) {
@@ -181,7 +186,7 @@ public final class Proximity {
                         .then((List<JsonObject> list) -> {
                             list.forEach(card -> XMLUtil.load(prototype.source(), "template.xml").ifError(LOG::warn)
                                     .then(e -> this.resolveResources(e, prototype.source()))
-                                    .then(e -> this.resolveImports(e, prototype.source()))
+                                    .then(e -> XMLUtil.resolveImports(e, prototype.source()))
                                     .then(root -> Result.of(new RenderableData(this, prototype.source(), root, card)))
                                     .then(renderable -> {
                                         dataConsumer.accept(renderable);
@@ -230,7 +235,8 @@ public final class Proximity {
                         switch (resource.getAttribute("type")) {
                             case "assets" -> {
                                 if (cache != null) {
-                                    source.wrapped.add(new RemoteFileSource(cache, location));
+                                    // Every copy of every card resolves the same resources, but the pack only needs adding once.
+                                    source.addIfAbsent(new AssetPackSource(cache, location));
                                 }
                             }
                         }
@@ -242,46 +248,6 @@ public final class Proximity {
         return Result.of(root);
     }
 
-    private Result<Element> resolveImports(Element root, TemplateSource source) {
-        Node firstChild = root.getFirstChild();
-        Document document = root.getOwnerDocument();
-        NodeList importsList = root.getElementsByTagName("Imports");
-
-        for (int i = 0; i < importsList.getLength(); ++i) {
-            Node n = importsList.item(i);
-
-            if (n instanceof Element) {
-                NodeList imports = n.getChildNodes();
-
-                for (int j = 0; j < imports.getLength(); ++j) {
-                    n = imports.item(j);
-
-                    if (n instanceof Element element) {
-                        String src = element.getAttribute("src") + ".xml";
-
-                        XMLUtil.load(source, src)
-                                .ifError(LOG::warn)
-                                .then(imported -> {
-                                    NodeList children = imported.getChildNodes();
-
-                                    for (int k = 0; k < children.getLength(); ++k) {
-                                        Node m = children.item(k);
-
-                                        if (m instanceof Element e) {
-                                            root.insertBefore(document.adoptNode(e), firstChild);
-                                        }
-                                    }
-
-                                    return Result.of((Void) null);
-                                });
-                    }
-                }
-            }
-        }
-
-        return Result.of(root);
-    }
-
     private Result<List<Plugin>> loadPluginsAndTasks(TemplateSource source, Element root, boolean help) {
         NodeList pluginBlocks = root.getElementsByTagName("Plugins");
         List<Plugin> plugins = new ArrayList<>();
@@ -528,7 +494,7 @@ public final class Proximity {
         long cardTime = System.currentTimeMillis();
 
         try {
-            BufferedImage image = new BufferedImage(card.getWidth(), card.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            BufferedImage image = ImageUtil.createCanvas(card.getWidth(), card.getHeight());
 
             Result<Void> result = card.render(new StatefulGraphics(image)).ifError(errors::add);
 
@@ -581,7 +547,7 @@ public final class Proximity {
         ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(stream);
 
         writer.setOutput(imageOutputStream);
-        writer.write(metadata, new IIOImage(image, null, metadata), param);
+        writer.write(metadata, new IIOImage(ImageUtil.toStraight(image), null, metadata), param);
         imageOutputStream.close();
         stream.close();
     }
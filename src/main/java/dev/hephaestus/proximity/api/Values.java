@@ -10,6 +10,8 @@ public final class Values {
     public static final Value<Boolean> HELP = Value.createBoolean("options", "help");
     public static final Value<Boolean> DEBUG = Value.createBoolean("options" , "debug");
     public static final Value<Boolean> OVERWRITE = Value.createBoolean("options", "overwrite");
+    public static final Value<Boolean> PARALLEL_LAYERS = Value.createBoolean("options", "parallel_layers");
+    public static final Value<Boolean> GLYPH_ATLAS = Value.createBoolean("options", "glyph_atlas");
 
     private Values() {
     }
@@ -0,0 +1,38 @@
+package dev.hephaestus.proximity.api.tasks;
+
+import dev.hephaestus.proximity.api.json.JsonObject;
+import dev.hephaestus.proximity.effects.EffectChain;
+import dev.hephaestus.proximity.xml.RenderableData;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * An effect whose output pixel depends only on the matching input pixel. Consecutive pointwise effects on a layer
+ * are fused into a single pass over the image, so plugins should implement this instead of {@link Effect} wherever
+ * it applies.
+ */
+@FunctionalInterface
+public interface PointwiseEffect extends Effect {
+    Operation prepare(JsonObject card, RenderableData.XMLElement element);
+
+    @Override
+    default void apply(JsonObject card, BufferedImage image, RenderableData.XMLElement element) {
+        EffectChain.apply(image, this.prepare(card, element));
+    }
+
+    /**
+     * Maps a single non-premultiplied ARGB pixel. Operations may be called from several threads at once.
+     */
+    @FunctionalInterface
+    interface Operation {
+        Operation IDENTITY = argb -> argb;
+
+        int apply(int argb);
+
+        default void apply(int[] pixels, int offset, int length) {
+            for (int i = offset; i < offset + length; ++i) {
+                pixels[i] = this.apply(pixels[i]);
+            }
+        }
+    }
+}
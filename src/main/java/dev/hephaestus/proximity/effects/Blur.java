@@ -1,6 +1,8 @@
 package dev.hephaestus.proximity.effects;
 
 import dev.hephaestus.proximity.api.json.JsonObject;
+import dev.hephaestus.proximity.util.IntRaster;
+import dev.hephaestus.proximity.util.ParallelUtil;
 import dev.hephaestus.proximity.xml.RenderableData;
 
 import java.awt.image.BufferedImage;
@@ -11,55 +13,37 @@ public final class Blur {
     public static int CLAMP_EDGES = 1;
     public static int WRAP_EDGES = 2;
 
+    // Radii up to this use the exact gaussian kernel; above it the cost of the kernel outweighs three box passes.
+    private static final int EXACT_RADIUS = 4;
+
+    // Radii above this are blurred at a reduced resolution and scaled back up.
+    private static final int DOWNSAMPLE_RADIUS = 64;
 
     public static void apply(JsonObject card, BufferedImage image, RenderableData.XMLElement element) {
         int r = element.getInteger("radius");
 
-        blur(makeKernel(r), image);
+        blur(image, r);
     }
 
-    private static void convolveAndTranspose(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, boolean alpha) {
-        float[] matrix = kernel.getKernelData(null);
-        int cols = kernel.getWidth();
-        int cols2 = cols / 2;
-
-        for (int y = 0; y < height; y++) {
-            int index = y;
-            int ioffset = y * width;
-
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0, a = 0;
-
-                for (int col = -cols2; col <= cols2; col++) {
-                    float f = matrix[cols2 + col];
-
-                    if (f != 0) {
-                        int ix = x + col;
-
-                        if (ix < 0) {
-                            ix = 0;
-                        } else if (ix >= width) {
-                            ix = width - 1;
-                        }
-
-                        int rgb = inPixels[ioffset + ix];
-                        a += f * ((rgb >> 24) & 0xff);
-                        r += f * ((rgb >> 16) & 0xff);
-                        g += f * ((rgb >> 8) & 0xff);
-                        b += f * (rgb & 0xff);
-                    }
-                }
+    public static void blur(BufferedImage image, float radius) {
+        if (radius <= 0) return;
 
-                int ia = alpha ? clamp((int) (a + 0.5), 0, 255) : 0xff;
-                int ir = clamp((int) (r + 0.5), 0, 255);
-                int ig = clamp((int) (g + 0.5), 0, 255);
-                int ib = clamp((int) (b + 0.5), 0, 255);
+        IntRaster raster = IntRaster.of(image);
+        int[] pixels = raster.getPixels();
+        int origin = raster.getRowOffset(0);
+        int stride = raster.getStride();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
 
-                outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
-
-                index += height;
-            }
+        if (radius <= EXACT_RADIUS) {
+            gaussian(pixels, origin, stride, width, height, radius);
+        } else if (radius <= DOWNSAMPLE_RADIUS) {
+            box(pixels, origin, stride, width, height, radius / 3);
+        } else {
+            downsampled(pixels, origin, stride, width, height, radius);
         }
+
+        raster.commit();
     }
 
     private static Kernel makeKernel(float radius) {
@@ -94,20 +78,183 @@ public final class Blur {
         return new Kernel(rows, 1, matrix);
     }
 
-    private static void blur(Kernel kernel, BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
+    private static void gaussian(int[] pixels, int origin, int stride, int width, int height, float radius) {
+        float[] matrix = makeKernel(radius).getKernelData(null);
+        int[] transposed = new int[width * height];
+
+        ParallelUtil.forEachRows(height, (from, to) -> PixelKernels.INSTANCE.convolveAndTranspose(matrix,
+                pixels, origin, stride, transposed, 0, height, width, from, to, true));
+        ParallelUtil.forEachRows(width, (from, to) -> PixelKernels.INSTANCE.convolveAndTranspose(matrix,
+                transposed, 0, height, pixels, origin, stride, height, from, to, true));
+    }
+
+    /**
+     * Approximates a gaussian blur with three successive box blurs in each direction. Each box pass keeps a running
+     * sum over its window, so the cost per pixel doesn't depend on the radius.
+     */
+    private static void box(int[] pixels, int origin, int stride, int width, int height, double sigma) {
+        int[] radii = boxRadii(sigma);
+        int[] transposed = new int[width * height];
+
+        ParallelUtil.forEachRows(height, (from, to) ->
+                boxAndTranspose(radii, pixels, origin, stride, transposed, 0, height, width, from, to));
+        ParallelUtil.forEachRows(width, (from, to) ->
+                boxAndTranspose(radii, transposed, 0, height, pixels, origin, stride, height, from, to));
+    }
+
+    /**
+     * Very wide blurs remove all the detail a full resolution pass would preserve, so the image is averaged down by
+     * an integer factor, blurred by the remaining amount, and bilinearly scaled back up.
+     */
+    private static void downsampled(int[] pixels, int origin, int stride, int width, int height, float radius) {
+        int factor = (int) (radius / (DOWNSAMPLE_RADIUS / 2));
+        int smallWidth = (width + factor - 1) / factor;
+        int smallHeight = (height + factor - 1) / factor;
+        int[] small = new int[smallWidth * smallHeight];
+
+        ParallelUtil.forEachRows(smallHeight, (from, to) -> shrink(pixels, origin, stride, width, height, small, smallWidth, factor, from, to));
+
+        // Averaging over blocks and interpolating back up each contribute some blur of their own, roughly a
+        // variance of factor^2 / 4 between them, so only the remainder is applied at the reduced resolution.
+        double sigma = radius / 3;
+        double remaining = Math.sqrt(Math.max(sigma * sigma - factor * factor / 4.0, 0)) / factor;
+
+        if (remaining > 0) {
+            box(small, 0, smallWidth, smallWidth, smallHeight, remaining);
+        }
+
+        ParallelUtil.forEachRows(height, (from, to) -> grow(small, smallWidth, smallHeight, pixels, origin, stride, width, factor, from, to));
+    }
+
+    private static int[] boxRadii(double sigma) {
+        double variance = sigma * sigma;
+        int lower = (int) Math.floor(Math.sqrt(4 * variance + 1));
+
+        if (lower % 2 == 0) lower--;
+
+        long boxes = Math.round((12 * variance - 3 * lower * lower - 12 * lower - 9) / (-4.0 * lower - 4));
+        int[] radii = new int[3];
+
+        for (int i = 0; i < radii.length; ++i) {
+            radii[i] = ((i < boxes ? lower : lower + 2) - 1) / 2;
+        }
+
+        return radii;
+    }
+
+    private static void boxAndTranspose(int[] radii, int[] in, int inOffset, int inStride, int[] out, int outOffset, int outStride, int width, int fromRow, int toRow) {
+        int[] a = new int[width];
+        int[] b = new int[width];
+
+        for (int y = fromRow; y < toRow; ++y) {
+            System.arraycopy(in, inOffset + y * inStride, a, 0, width);
+
+            boxLine(a, b, width, radii[0]);
+            boxLine(b, a, width, radii[1]);
+            boxLine(a, b, width, radii[2]);
+
+            for (int x = 0, index = outOffset + y; x < width; ++x, index += outStride) {
+                out[index] = b[x];
+            }
+        }
+    }
+
+    private static void boxLine(int[] in, int[] out, int length, int radius) {
+        if (radius == 0) {
+            System.arraycopy(in, 0, out, 0, length);
+            return;
+        }
+
+        int size = radius * 2 + 1;
+        long scale = ((1L << 32) + size / 2) / size;
+        int last = length - 1;
+        int a = 0, r = 0, g = 0, b = 0;
 
-        int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
-        int[] outPixels = new int[width * height];
+        for (int i = -radius; i <= radius; ++i) {
+            int argb = in[Math.min(Math.max(i, 0), last)];
 
-        convolveAndTranspose(kernel, rgb, outPixels, width, height, true);
-        convolveAndTranspose(kernel, outPixels, rgb, height, width, true);
+            a += argb >>> 24;
+            r += (argb >> 16) & 0xFF;
+            g += (argb >> 8) & 0xFF;
+            b += argb & 0xFF;
+        }
 
-        image.setRGB(0, 0, width, height, rgb, 0, width);
+        for (int x = 0; x < length; ++x) {
+            out[x] = (average(a, scale) << 24) | (average(r, scale) << 16) | (average(g, scale) << 8) | average(b, scale);
+
+            int added = in[Math.min(x + radius + 1, last)];
+            int removed = in[Math.max(x - radius, 0)];
+
+            a += (added >>> 24) - (removed >>> 24);
+            r += ((added >> 16) & 0xFF) - ((removed >> 16) & 0xFF);
+            g += ((added >> 8) & 0xFF) - ((removed >> 8) & 0xFF);
+            b += (added & 0xFF) - (removed & 0xFF);
+        }
+    }
+
+    private static int average(int sum, long scale) {
+        return (int) Math.min((sum * scale + (1L << 31)) >>> 32, 0xFF);
     }
 
-    private static int clamp(int value, int min, int max) {
-        return Math.max(min, Math.min(max, value));
+    private static void shrink(int[] in, int inOffset, int inStride, int width, int height, int[] out, int outWidth, int factor, int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; ++y) {
+            int top = y * factor;
+            int bottom = Math.min(top + factor, height);
+
+            for (int x = 0; x < outWidth; ++x) {
+                int left = x * factor;
+                int right = Math.min(left + factor, width);
+                int a = 0, r = 0, g = 0, b = 0;
+
+                for (int sy = top; sy < bottom; ++sy) {
+                    for (int sx = left, i = inOffset + sy * inStride + left; sx < right; ++sx, ++i) {
+                        int argb = in[i];
+
+                        a += argb >>> 24;
+                        r += (argb >> 16) & 0xFF;
+                        g += (argb >> 8) & 0xFF;
+                        b += argb & 0xFF;
+                    }
+                }
+
+                int count = (bottom - top) * (right - left);
+                int half = count / 2;
+
+                out[y * outWidth + x] = ((a + half) / count << 24) | ((r + half) / count << 16) | ((g + half) / count << 8) | (b + half) / count;
+            }
+        }
+    }
+
+    private static void grow(int[] in, int inWidth, int inHeight, int[] out, int outOffset, int outStride, int width, int factor, int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; ++y) {
+            float sy = Math.max((y + 0.5F) / factor - 0.5F, 0);
+            int y0 = Math.min((int) sy, inHeight - 1);
+            int y1 = Math.min(y0 + 1, inHeight - 1);
+            float fy = Math.min(sy - y0, 1);
+
+            for (int x = 0; x < width; ++x) {
+                float sx = Math.max((x + 0.5F) / factor - 0.5F, 0);
+                int x0 = Math.min((int) sx, inWidth - 1);
+                int x1 = Math.min(x0 + 1, inWidth - 1);
+                float fx = Math.min(sx - x0, 1);
+
+                int p00 = in[y0 * inWidth + x0];
+                int p01 = in[y0 * inWidth + x1];
+                int p10 = in[y1 * inWidth + x0];
+                int p11 = in[y1 * inWidth + x1];
+
+                out[outOffset + y * outStride + x] = (lerp(p00, p01, p10, p11, fx, fy, 24) << 24)
+                        | (lerp(p00, p01, p10, p11, fx, fy, 16) << 16)
+                        | (lerp(p00, p01, p10, p11, fx, fy, 8) << 8)
+                        | lerp(p00, p01, p10, p11, fx, fy, 0);
+            }
+        }
+    }
+
+    private static int lerp(int p00, int p01, int p10, int p11, float fx, float fy, int shift) {
+        float top = ((p00 >>> shift) & 0xFF) * (1 - fx) + ((p01 >>> shift) & 0xFF) * fx;
+        float bottom = ((p10 >>> shift) & 0xFF) * (1 - fx) + ((p11 >>> shift) & 0xFF) * fx;
+
+        return Math.min((int) (top * (1 - fy) + bottom * fy + 0.5F), 0xFF);
     }
 }
@@ -0,0 +1,109 @@
+package dev.hephaestus.proximity.effects;
+
+import dev.hephaestus.proximity.api.json.JsonObject;
+import dev.hephaestus.proximity.api.tasks.Effect;
+import dev.hephaestus.proximity.api.tasks.PointwiseEffect;
+import dev.hephaestus.proximity.util.IntRaster;
+import dev.hephaestus.proximity.util.Pair;
+import dev.hephaestus.proximity.util.ParallelUtil;
+import dev.hephaestus.proximity.xml.RenderableData;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ordered list of effects to apply to a layer. Runs of {@link PointwiseEffect}s are fused so that each row of the
+ * image is loaded once and passed through every operation in the run while it's still in cache. Any other effect
+ * acts as a barrier between runs.
+ */
+public final class EffectChain {
+    private final List<Step> steps;
+
+    private EffectChain(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    public static EffectChain plan(JsonObject card, List<Pair<RenderableData.XMLElement, Effect>> effects) {
+        List<Step> steps = new ArrayList<>();
+        List<PointwiseEffect.Operation> run = new ArrayList<>();
+
+        for (var pair : effects) {
+            if (pair.right() instanceof PointwiseEffect pointwise) {
+                PointwiseEffect.Operation operation = pointwise.prepare(card, pair.left());
+
+                if (operation != PointwiseEffect.Operation.IDENTITY) {
+                    run.add(operation);
+                }
+            } else {
+                if (!run.isEmpty()) {
+                    steps.add(new Fused(run.toArray(new PointwiseEffect.Operation[0])));
+                    run.clear();
+                }
+
+                steps.add(new Barrier(pair.left(), pair.right()));
+            }
+        }
+
+        if (!run.isEmpty()) {
+            steps.add(new Fused(run.toArray(new PointwiseEffect.Operation[0])));
+        }
+
+        return new EffectChain(steps);
+    }
+
+    public boolean isEmpty() {
+        return this.steps.isEmpty();
+    }
+
+    public void apply(JsonObject card, BufferedImage image) {
+        for (Step step : this.steps) {
+            if (step instanceof Fused fused) {
+                apply(image, fused.operations());
+            } else if (step instanceof Barrier barrier) {
+                barrier.effect().apply(card, image, barrier.element());
+            }
+        }
+    }
+
+    public static void apply(BufferedImage image, PointwiseEffect.Operation... operations) {
+        if (operations.length == 0 || operations.length == 1 && operations[0] == PointwiseEffect.Operation.IDENTITY) {
+            return;
+        }
+
+        IntRaster raster = IntRaster.of(image);
+        int[] pixels = raster.getPixels();
+        int width = raster.getWidth();
+        boolean premultiplied = raster.isPremultiplied();
+
+        // Operations see straight alpha, so premultiplied rows are converted on the way in and out while in cache.
+        ParallelUtil.forEachRows(raster.getHeight(), (from, to) -> {
+            for (int y = from; y < to; ++y) {
+                int offset = raster.getRowOffset(y);
+
+                if (premultiplied) {
+                    PixelKernels.INSTANCE.unpremultiply(pixels, offset, width);
+                }
+
+                for (PointwiseEffect.Operation operation : operations) {
+                    operation.apply(pixels, offset, width);
+                }
+
+                if (premultiplied) {
+                    PixelKernels.INSTANCE.premultiply(pixels, offset, width);
+                }
+            }
+        });
+
+        raster.commit();
+    }
+
+    private interface Step {
+    }
+
+    private record Fused(PointwiseEffect.Operation[] operations) implements Step {
+    }
+
+    private record Barrier(RenderableData.XMLElement element, Effect effect) implements Step {
+    }
+}
@@ -1,6 +1,7 @@
 package dev.hephaestus.proximity.effects;
 
 import dev.hephaestus.proximity.api.json.JsonObject;
+import dev.hephaestus.proximity.api.tasks.PointwiseEffect;
 import dev.hephaestus.proximity.xml.RenderableData;
 
 import java.awt.Color;
@@ -8,78 +9,291 @@ import java.awt.image.BufferedImage;
 import java.util.function.Function;
 
 public class HSB {
-    public static void apply(JsonObject card, BufferedImage image, RenderableData.XMLElement element) {
+    private static final int HUE_STEPS = 6 * 256;
+
+    public static PointwiseEffect.Operation hsb(JsonObject card, RenderableData.XMLElement element) {
         String hue = element.hasAttribute("hue") ? element.getAttribute("hue") : "+0";
         String saturation = element.hasAttribute("saturation") ? element.getAttribute("saturation") : "+0";
         String brightness = element.hasAttribute("brightness") ? element.getAttribute("brightness") : "+0";
 
-        apply(image, hue, saturation, brightness);
+        return prepare(hue, saturation, brightness);
+    }
+
+    public static PointwiseEffect.Operation hue(JsonObject card, RenderableData.XMLElement element) {
+        return prepare(element.getAttribute("amount"), "+0", "+0");
     }
 
-    public static void hue(JsonObject card, BufferedImage image, RenderableData.XMLElement element) {
-        HSB.apply(image, element.getAttribute("amount"), "+0", "+0");
+    public static PointwiseEffect.Operation saturation(JsonObject card, RenderableData.XMLElement element) {
+        return prepare("+0", element.getAttribute("amount"), "+0");
     }
 
-    public static void saturation(JsonObject card, BufferedImage image, RenderableData.XMLElement element) {
-        HSB.apply(image, "+0", element.getAttribute("amount"), "+0");
+    public static PointwiseEffect.Operation brightness(JsonObject card, RenderableData.XMLElement element) {
+        return prepare("+0", "+0", element.getAttribute("amount"));
     }
 
-    public static void brightness(JsonObject card, BufferedImage image, RenderableData.XMLElement element) {
-        HSB.apply(image, "+0", "+0", element.getAttribute("amount"));
+    public static PointwiseEffect.Operation prepare(String hue, String saturation, String brightness) {
+        Adjustment adjustment = Adjustment.parse(hue, saturation, brightness);
+
+        return adjustment.isIdentity() ? PointwiseEffect.Operation.IDENTITY : adjustment;
     }
 
     public static void apply(BufferedImage image, String hue, String saturation, String brightness) {
-        float dHueValue = (hue.endsWith("%")
-                ? Float.parseFloat(hue.substring(0, hue.length() - 1))
-                : Float.parseFloat(hue))/100;
+        EffectChain.apply(image, prepare(hue, saturation, brightness));
+    }
+
+    public static void apply(BufferedImage image, Function<Float, Float> dHue, Function<Float, Float> dSaturation, Function<Float, Float> dBrightness) {
+        EffectChain.apply(image, new PointwiseEffect.Operation() {
+            @Override
+            public int apply(int argb) {
+                return apply(argb, new float[3]);
+            }
+
+            @Override
+            public void apply(int[] pixels, int offset, int length) {
+                float[] hsb = new float[3];
 
-        Function<Float, Float> dHue = hue.startsWith("+") || hue.startsWith("-")
-                ? f -> f + dHueValue
-                : f -> dHueValue;
+                for (int i = offset; i < offset + length; ++i) {
+                    pixels[i] = apply(pixels[i], hsb);
+                }
+            }
 
-        float dHueSaturationValue = (saturation.endsWith("%")
-                ? Float.parseFloat(saturation.substring(0, saturation.length() - 1))
-                : Float.parseFloat(saturation))/100;
+            private int apply(int argb, float[] hsb) {
+                int a = (argb >> 24) & 0xFF;
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
 
-        Function<Float, Float> dSaturation = saturation.startsWith("+") || saturation.startsWith("-")
-                ? f -> f > 0 ? f + dHueSaturationValue : f
-                : f -> f > 0 ? dHueSaturationValue : 0;
+                Color.RGBtoHSB(r, g, b, hsb);
 
-        float dBrightnessValue = (brightness.endsWith("%")
-                ? Float.parseFloat(brightness.substring(0, brightness.length() - 1))
-                : Float.parseFloat(brightness))/100;
+                hsb[0] = dHue.apply(hsb[0]);
+                hsb[1] = dSaturation.apply(hsb[1]);
+                hsb[2] = dBrightness.apply(hsb[2]);
 
-        Function<Float, Float> dBrightness = brightness.startsWith("+") || brightness.startsWith("-")
-                ? f -> f + dBrightnessValue
-                : f -> dBrightnessValue;
+                hsb[0] = ((hsb[0] % 1F) + 1) % 1F;
+                hsb[1] = hsb[1] > 1 ? 1 : hsb[1] < 0 ? 0 : hsb[1];
+                hsb[2] = hsb[2] > 1 ? 1 : hsb[2] < 0 ? 0 : hsb[2];
 
-        apply(image, dHue, dSaturation, dBrightness);
+                return (a << 24) | (0x00FFFFFF & Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]));
+            }
+        });
     }
 
-    public static void apply(BufferedImage image, Function<Float, Float> dHue, Function<Float, Float> dSaturation, Function<Float, Float> dBrightness) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int[] rgb = image.getRGB( 0, 0, width, height, null, 0, width);
+    /**
+     * A parsed hue/saturation/brightness adjustment. Values are fractions of the full range; relative values are
+     * added to the pixel's own component and absolute values replace it.
+     */
+    private static final class Adjustment implements PointwiseEffect.Operation {
+        private final boolean hueRelative, saturationRelative, brightnessRelative;
+        private final float hue, saturation, brightness;
+
+        // Brightness of each possible max channel value after adjustment, in 1/256ths of a level.
+        private final int[] brightnessTable = new int[256];
+
+        // Factor each channel is multiplied by for pure brightness changes, indexed by max channel, in 16.16 fixed point.
+        private final int[] brightnessScale = new int[256];
+
+        // Saturation ratio (new / old) in 16.16 fixed point for each (max, min) pair, for pure saturation changes.
+        private int[] saturationTable;
+
+        private Adjustment(boolean hueRelative, float hue, boolean saturationRelative, float saturation, boolean brightnessRelative, float brightness) {
+            this.hueRelative = hueRelative;
+            this.hue = hue;
+            this.saturationRelative = saturationRelative;
+            this.saturation = saturation;
+            this.brightnessRelative = brightnessRelative;
+            this.brightness = brightness;
+
+            for (int max = 0; max < 256; ++max) {
+                float v = clamp(brightnessRelative ? max / 255F + brightness : brightness);
+
+                this.brightnessTable[max] = Math.round(v * 255 * 256);
+
+                if (max > 0) {
+                    this.brightnessScale[max] = Math.round(v * 255 * 65536 / max);
+                }
+            }
+
+            if (this.isHueIdentity() && this.isBrightnessIdentity() && !this.isSaturationIdentity()) {
+                this.saturationTable = new int[256 * 256];
+
+                for (int max = 1; max < 256; ++max) {
+                    for (int min = 0; min < max; ++min) {
+                        float s = (max - min) / (float) max;
+
+                        this.saturationTable[max * 256 + min] = Math.round(this.adjustSaturation(s) / s * 65536);
+                    }
+                }
+            }
+        }
+
+        static Adjustment parse(String hue, String saturation, String brightness) {
+            return new Adjustment(
+                    isRelative(hue), parse(hue),
+                    isRelative(saturation), parse(saturation),
+                    isRelative(brightness), parse(brightness)
+            );
+        }
+
+        boolean isIdentity() {
+            return this.isHueIdentity() && this.isSaturationIdentity() && this.isBrightnessIdentity();
+        }
+
+        @Override
+        public int apply(int argb) {
+            if (this.isHueIdentity() && this.isSaturationIdentity()) {
+                return this.applyBrightness(argb);
+            } else if (this.saturationTable != null) {
+                return this.applySaturation(argb);
+            } else {
+                return this.applyAll(argb);
+            }
+        }
+
+        @Override
+        public void apply(int[] pixels, int offset, int length) {
+            if (this.isHueIdentity() && this.isSaturationIdentity()) {
+                for (int i = offset; i < offset + length; ++i) {
+                    pixels[i] = this.applyBrightness(pixels[i]);
+                }
+            } else if (this.saturationTable != null) {
+                for (int i = offset; i < offset + length; ++i) {
+                    pixels[i] = this.applySaturation(pixels[i]);
+                }
+            } else {
+                for (int i = offset; i < offset + length; ++i) {
+                    pixels[i] = this.applyAll(pixels[i]);
+                }
+            }
+        }
+
+        private boolean isHueIdentity() {
+            return this.hueRelative && this.hue == 0;
+        }
+
+        private boolean isSaturationIdentity() {
+            return this.saturationRelative && this.saturation == 0;
+        }
+
+        private boolean isBrightnessIdentity() {
+            return this.brightnessRelative && this.brightness == 0;
+        }
+
+        // With hue and saturation fixed every channel scales with the brightness, i.e. with the max channel.
+        private int applyBrightness(int argb) {
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            int max = Math.max(r, Math.max(g, b));
+            int v = this.brightnessTable[max];
 
-        for (int i = 0; i < rgb.length; ++i) {
-            int a = (rgb[i] >> 24) & 0xFF;
-            int r = (rgb[i] >> 16) & 0xFF;
-            int g = (rgb[i] >> 8) & 0xFF;
-            int b = rgb[i] & 0xFF;
+            if (max == 0) {
+                int gray = (v + 128) >> 8;
+
+                return (argb & 0xFF000000) | (gray << 16) | (gray << 8) | gray;
+            }
+
+            int scale = this.brightnessScale[max];
+
+            return (argb & 0xFF000000)
+                    | (Math.min((r * scale + 0x8000) >> 16, 0xFF) << 16)
+                    | (Math.min((g * scale + 0x8000) >> 16, 0xFF) << 8)
+                    | Math.min((b * scale + 0x8000) >> 16, 0xFF);
+        }
 
-            float[] hsb = Color.RGBtoHSB(r, g, b, null);
+        // With hue and brightness fixed each channel's distance from the max channel scales with the saturation.
+        private int applySaturation(int argb) {
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            int max = Math.max(r, Math.max(g, b));
+            int min = Math.min(r, Math.min(g, b));
 
-            hsb[0] = dHue.apply(hsb[0]);
-            hsb[1] = dSaturation.apply(hsb[1]);
-            hsb[2] = dBrightness.apply(hsb[2]);
+            if (max == min) return argb;
 
-            hsb[0] = ((hsb[0] % 1F) + 1) % 1F;
-            hsb[1] = hsb[1] > 1 ? 1 : hsb[1] < 0 ? 0 : hsb[1];
-            hsb[2] = hsb[2] > 1 ? 1 : hsb[2] < 0 ? 0 : hsb[2];
+            int ratio = this.saturationTable[max * 256 + min];
 
-            rgb[i] = (a << 24) | (0x00FFFFFF & Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]));
+            return (argb & 0xFF000000)
+                    | (desaturate(r, max, ratio) << 16)
+                    | (desaturate(g, max, ratio) << 8)
+                    | desaturate(b, max, ratio);
         }
 
-        image.setRGB( 0, 0, width, height, rgb, 0, width);
+        private int applyAll(int argb) {
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            int max = Math.max(r, Math.max(g, b));
+            int min = Math.min(r, Math.min(g, b));
+            int chroma = max - min;
+            int v = this.brightnessTable[max];
+
+            // Like Color.RGBtoHSB, grays have no hue and a saturation of zero, which no adjustment changes.
+            if (chroma == 0) {
+                int gray = (v + 128) >> 8;
+
+                return (argb & 0xFF000000) | (gray << 16) | (gray << 8) | gray;
+            }
+
+            int h;
+
+            if (r == max) {
+                h = ((g - b) * 256 + (g < b ? HUE_STEPS * chroma : 0) + chroma / 2) / chroma;
+            } else if (g == max) {
+                h = ((b - r) * 256 + 2 * 256 * chroma + chroma / 2) / chroma;
+            } else {
+                h = ((r - g) * 256 + 4 * 256 * chroma + chroma / 2) / chroma;
+            }
+
+            int dh = Math.round(this.hue * HUE_STEPS);
+
+            h = Math.floorMod(this.hueRelative ? h + dh : dh, HUE_STEPS);
+
+            int s = Math.round(this.adjustSaturation(chroma / (float) max) * 65536);
+            int sector = h >> 8;
+            int f = h & 0xFF;
+
+            int p = channel(v, s, 256);
+            int q = channel(v, s, f);
+            int t = channel(v, s, 256 - f);
+            int top = (v + 128) >> 8;
+
+            return (argb & 0xFF000000) | switch (sector) {
+                case 0 -> (top << 16) | (t << 8) | p;
+                case 1 -> (q << 16) | (top << 8) | p;
+                case 2 -> (p << 16) | (top << 8) | t;
+                case 3 -> (p << 16) | (q << 8) | top;
+                case 4 -> (t << 16) | (p << 8) | top;
+                default -> (top << 16) | (p << 8) | q;
+            };
+        }
+
+        private float adjustSaturation(float s) {
+            return clamp(this.saturationRelative ? s + this.saturation : this.saturation);
+        }
+
+        // v * (1 - s * k / 256), with v in 1/256ths of a level and s in 16.16 fixed point.
+        private static int channel(int v, int s, int k) {
+            long scaled = (long) v * (65536L * 256 - (long) s * k);
+
+            return Math.min((int) ((scaled + (1L << 31)) >>> 32), 0xFF);
+        }
+
+        private static int desaturate(int c, int max, int ratio) {
+            return Math.max(max - (((max - c) * ratio + 0x8000) >> 16), 0);
+        }
+
+        private static boolean isRelative(String value) {
+            return value.startsWith("+") || value.startsWith("-");
+        }
+
+        private static float parse(String value) {
+            return (value.endsWith("%")
+                    ? Float.parseFloat(value.substring(0, value.length() - 1))
+                    : Float.parseFloat(value)) / 100;
+        }
+
+        private static float clamp(float value) {
+            return value > 1 ? 1 : value < 0 ? 0 : value;
+        }
     }
 }
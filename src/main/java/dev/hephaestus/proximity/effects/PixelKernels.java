@@ -0,0 +1,69 @@
+package dev.hephaestus.proximity.effects;
+
+import dev.hephaestus.proximity.Proximity;
+import dev.hephaestus.proximity.util.ExceptionUtil;
+
+/**
+ * Bulk operations over packed ARGB pixel arrays.
+ *
+ * <p>{@link #INSTANCE} is backed by {@code jdk.incubator.vector} when that module is present at runtime
+ * (i.e. the JVM was started with {@code --add-modules jdk.incubator.vector}), and by a scalar implementation
+ * otherwise. Both implementations produce identical results.</p>
+ */
+public interface PixelKernels {
+    PixelKernels INSTANCE = select();
+
+    /**
+     * Scales the alpha of each pixel by the alpha of the matching mask pixel minus the alpha of the matching
+     * erase pixel. Either array may be null, in which case it is treated as fully opaque or fully transparent
+     * respectively.
+     */
+    void multiplyAlpha(int[] pixels, int[] mask, int[] erase, int offset, int length);
+
+    /**
+     * Same as {@link #multiplyAlpha(int[], int[], int[], int, int)} for premultiplied pixels, which scales every
+     * channel rather than just alpha. The mask and erase pixels may be either premultiplied or not.
+     */
+    void multiplyAlphaPremultiplied(int[] pixels, int[] mask, int[] erase, int offset, int length);
+
+    void premultiply(int[] pixels, int offset, int length);
+
+    void unpremultiply(int[] pixels, int offset, int length);
+
+    /**
+     * Convolves each row of {@code in} with a one-dimensional kernel, clamping at the edges, and writes the
+     * result transposed into {@code out}. Calling this twice with the dimensions swapped applies a separable
+     * two-dimensional convolution.
+     */
+    default void convolveAndTranspose(float[] kernel, int[] in, int[] out, int width, int height, boolean alpha) {
+        this.convolveAndTranspose(kernel, in, 0, width, out, 0, height, width, 0, height, alpha);
+    }
+
+    /**
+     * Same as {@link #convolveAndTranspose(float[], int[], int[], int, int, boolean)} for strided arrays: pixel
+     * {@code (x, y)} is read from {@code in[inOffset + y * inStride + x]} and written to
+     * {@code out[outOffset + x * outStride + y]}. Only the rows {@code [fromRow, toRow)} are processed, and
+     * disjoint row ranges may be processed concurrently.
+     */
+    void convolveAndTranspose(float[] kernel, int[] in, int inOffset, int inStride, int[] out, int outOffset, int outStride, int width, int fromRow, int toRow, boolean alpha);
+
+    String getName();
+
+    private static PixelKernels select() {
+        if (!Boolean.getBoolean("proximity.scalarKernels") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                PixelKernels kernels = (PixelKernels) Class.forName("dev.hephaestus.proximity.effects.VectorPixelKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+
+                Proximity.LOG.debug("Using {} pixel kernels", kernels.getName());
+
+                return kernels;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                Proximity.LOG.warn("Failed to load vector pixel kernels: {}", ExceptionUtil.getErrorMessage(e));
+            }
+        }
+
+        return new ScalarPixelKernels();
+    }
+}
@@ -0,0 +1,130 @@
+package dev.hephaestus.proximity.effects;
+
+final class ScalarPixelKernels implements PixelKernels {
+    // Each channel value unpremultiplied by each alpha, indexed by alpha << 8 | channel and rounded to nearest. A
+    // lookup is cheaper than a division, and zero alpha maps every channel to zero.
+    static final int[] UNPREMULTIPLY = new int[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; ++a) {
+            for (int c = 0; c < 256; ++c) {
+                UNPREMULTIPLY[a << 8 | c] = Math.min((c * 510 + a) / (a * 2), 0xFF);
+            }
+        }
+    }
+
+    @Override
+    public void multiplyAlpha(int[] pixels, int[] mask, int[] erase, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i) {
+            int modifier = (mask == null ? 0xFF : mask[i] >>> 24) - (erase == null ? 0 : erase[i] >>> 24);
+            int alpha = div255((pixels[i] >>> 24) * Math.max(modifier, 0));
+
+            pixels[i] = (pixels[i] & 0x00FFFFFF) | (alpha << 24);
+        }
+    }
+
+    @Override
+    public void multiplyAlphaPremultiplied(int[] pixels, int[] mask, int[] erase, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i) {
+            int modifier = Math.max((mask == null ? 0xFF : mask[i] >>> 24) - (erase == null ? 0 : erase[i] >>> 24), 0);
+
+            if (modifier != 0xFF) {
+                int argb = pixels[i];
+                int a = div255((argb >>> 24) * modifier);
+                int r = div255(((argb >> 16) & 0xFF) * modifier);
+                int g = div255(((argb >> 8) & 0xFF) * modifier);
+                int b = div255((argb & 0xFF) * modifier);
+
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    @Override
+    public void premultiply(int[] pixels, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i) {
+            int argb = pixels[i];
+            int a = argb >>> 24;
+
+            if (a != 0xFF) {
+                int r = div255(((argb >> 16) & 0xFF) * a);
+                int g = div255(((argb >> 8) & 0xFF) * a);
+                int b = div255((argb & 0xFF) * a);
+
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    @Override
+    public void unpremultiply(int[] pixels, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i) {
+            int argb = pixels[i];
+            int a = argb >>> 24;
+
+            if (a != 0xFF) {
+                int row = a << 8;
+                int r = UNPREMULTIPLY[row | (argb >> 16) & 0xFF];
+                int g = UNPREMULTIPLY[row | (argb >> 8) & 0xFF];
+                int b = UNPREMULTIPLY[row | argb & 0xFF];
+
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    @Override
+    public void convolveAndTranspose(float[] kernel, int[] in, int inOffset, int inStride, int[] out, int outOffset, int outStride, int width, int fromRow, int toRow, boolean alpha) {
+        int radius = kernel.length / 2;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int index = outOffset + y;
+            int rowOffset = inOffset + y * inStride;
+
+            for (int x = 0; x < width; x++) {
+                float r = 0, g = 0, b = 0, a = 0;
+
+                for (int col = -radius; col <= radius; col++) {
+                    float f = kernel[radius + col];
+
+                    if (f != 0) {
+                        int ix = Math.min(Math.max(x + col, 0), width - 1);
+                        int argb = in[rowOffset + ix];
+
+                        a += f * ((argb >> 24) & 0xFF);
+                        r += f * ((argb >> 16) & 0xFF);
+                        g += f * ((argb >> 8) & 0xFF);
+                        b += f * (argb & 0xFF);
+                    }
+                }
+
+                out[index] = pack(a, r, g, b, alpha);
+                index += outStride;
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    static int div255(int x) {
+        x += 0x80;
+
+        return (x + (x >>> 8)) >>> 8;
+    }
+
+    static int pack(float a, float r, float g, float b, boolean alpha) {
+        int ia = alpha ? clamp((int) (a + 0.5F)) : 0xFF;
+        int ir = clamp((int) (r + 0.5F));
+        int ig = clamp((int) (g + 0.5F));
+        int ib = clamp((int) (b + 0.5F));
+
+        return (ia << 24) | (ir << 16) | (ig << 8) | ib;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(0xFF, value));
+    }
+}
@@ -0,0 +1,216 @@
+package dev.hephaestus.proximity.effects;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorPixelKernels implements PixelKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    private final ScalarPixelKernels scalar = new ScalarPixelKernels();
+
+    @Override
+    public void multiplyAlpha(int[] pixels, int[] mask, int[] erase, int offset, int length) {
+        int i = offset;
+        int bound = offset + INTS.loopBound(length);
+
+        for (; i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector modifier = mask == null
+                    ? IntVector.broadcast(INTS, 0xFF)
+                    : IntVector.fromArray(INTS, mask, i).lanewise(VectorOperators.LSHR, 24);
+
+            if (erase != null) {
+                modifier = modifier.sub(IntVector.fromArray(INTS, erase, i).lanewise(VectorOperators.LSHR, 24)).max(0);
+            }
+
+            IntVector alpha = div255(argb.lanewise(VectorOperators.LSHR, 24).mul(modifier));
+
+            argb.and(0x00FFFFFF)
+                    .or(alpha.lanewise(VectorOperators.LSHL, 24))
+                    .intoArray(pixels, i);
+        }
+
+        this.scalar.multiplyAlpha(pixels, mask, erase, i, offset + length - i);
+    }
+
+    @Override
+    public void multiplyAlphaPremultiplied(int[] pixels, int[] mask, int[] erase, int offset, int length) {
+        int i = offset;
+        int bound = offset + INTS.loopBound(length);
+
+        for (; i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector modifier = mask == null
+                    ? IntVector.broadcast(INTS, 0xFF)
+                    : IntVector.fromArray(INTS, mask, i).lanewise(VectorOperators.LSHR, 24);
+
+            if (erase != null) {
+                modifier = modifier.sub(IntVector.fromArray(INTS, erase, i).lanewise(VectorOperators.LSHR, 24)).max(0);
+            }
+
+            IntVector a = div255(argb.lanewise(VectorOperators.LSHR, 24).mul(modifier));
+            IntVector r = div255(argb.lanewise(VectorOperators.LSHR, 16).and(0xFF).mul(modifier));
+            IntVector g = div255(argb.lanewise(VectorOperators.LSHR, 8).and(0xFF).mul(modifier));
+            IntVector b = div255(argb.and(0xFF).mul(modifier));
+
+            pack(a, r, g, b).intoArray(pixels, i);
+        }
+
+        this.scalar.multiplyAlphaPremultiplied(pixels, mask, erase, i, offset + length - i);
+    }
+
+    @Override
+    public void premultiply(int[] pixels, int offset, int length) {
+        int i = offset;
+        int bound = offset + INTS.loopBound(length);
+
+        for (; i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector a = argb.lanewise(VectorOperators.LSHR, 24);
+            IntVector r = div255(argb.lanewise(VectorOperators.LSHR, 16).and(0xFF).mul(a));
+            IntVector g = div255(argb.lanewise(VectorOperators.LSHR, 8).and(0xFF).mul(a));
+            IntVector b = div255(argb.and(0xFF).mul(a));
+
+            pack(a, r, g, b).intoArray(pixels, i);
+        }
+
+        this.scalar.premultiply(pixels, i, offset + length - i);
+    }
+
+    @Override
+    public void unpremultiply(int[] pixels, int offset, int length) {
+        int i = offset;
+        int bound = offset + INTS.loopBound(length);
+
+        int[] indices = new int[INTS.length()];
+
+        // Channels are looked up in the same table as the scalar implementation, a vector of lanes at a time.
+        for (; i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector a = argb.lanewise(VectorOperators.LSHR, 24);
+            IntVector row = a.lanewise(VectorOperators.LSHL, 8);
+
+            IntVector r = unpremultiply(argb.lanewise(VectorOperators.LSHR, 16).and(0xFF), row, indices);
+            IntVector g = unpremultiply(argb.lanewise(VectorOperators.LSHR, 8).and(0xFF), row, indices);
+            IntVector b = unpremultiply(argb.and(0xFF), row, indices);
+
+            pack(a, r, g, b)
+                    .blend(argb, a.compare(VectorOperators.EQ, 0xFF))
+                    .intoArray(pixels, i);
+        }
+
+        this.scalar.unpremultiply(pixels, i, offset + length - i);
+    }
+
+    @Override
+    public void convolveAndTranspose(float[] kernel, int[] in, int inOffset, int inStride, int[] out, int outOffset, int outStride, int width, int fromRow, int toRow, boolean alpha) {
+        int radius = kernel.length / 2;
+        int lanes = INTS.length();
+        int[] row = new int[width];
+
+        // Pixels whose whole kernel window lies inside the row don't need clamping and are computed a vector at a
+        // time; the taps are accumulated in the same order as the scalar implementation so results are identical.
+        int start = radius;
+        int end = width - radius - lanes + 1;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int rowOffset = inOffset + y * inStride;
+            int x = 0;
+
+            for (; x < Math.min(start, width); x++) {
+                row[x] = convolve(kernel, in, rowOffset, x, width, alpha);
+            }
+
+            for (; x < end; x += lanes) {
+                FloatVector a = FloatVector.zero(FLOATS);
+                FloatVector r = FloatVector.zero(FLOATS);
+                FloatVector g = FloatVector.zero(FLOATS);
+                FloatVector b = FloatVector.zero(FLOATS);
+
+                for (int col = -radius; col <= radius; col++) {
+                    float f = kernel[radius + col];
+
+                    if (f != 0) {
+                        IntVector argb = IntVector.fromArray(INTS, in, rowOffset + x + col);
+
+                        a = a.add(toFloat(argb.lanewise(VectorOperators.LSHR, 24)).mul(f));
+                        r = r.add(toFloat(argb.lanewise(VectorOperators.LSHR, 16).and(0xFF)).mul(f));
+                        g = g.add(toFloat(argb.lanewise(VectorOperators.LSHR, 8).and(0xFF)).mul(f));
+                        b = b.add(toFloat(argb.and(0xFF)).mul(f));
+                    }
+                }
+
+                IntVector ia = alpha ? round(a) : IntVector.broadcast(INTS, 0xFF);
+
+                pack(ia, round(r), round(g), round(b)).intoArray(row, x);
+            }
+
+            for (; x < width; x++) {
+                row[x] = convolve(kernel, in, rowOffset, x, width, alpha);
+            }
+
+            for (int i = 0, index = outOffset + y; i < width; i++, index += outStride) {
+                out[index] = row[i];
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + INTS.length() + " lanes)";
+    }
+
+    private static int convolve(float[] kernel, int[] in, int rowOffset, int x, int width, boolean alpha) {
+        int radius = kernel.length / 2;
+        float r = 0, g = 0, b = 0, a = 0;
+
+        for (int col = -radius; col <= radius; col++) {
+            float f = kernel[radius + col];
+
+            if (f != 0) {
+                int argb = in[rowOffset + Math.min(Math.max(x + col, 0), width - 1)];
+
+                a += f * ((argb >> 24) & 0xFF);
+                r += f * ((argb >> 16) & 0xFF);
+                g += f * ((argb >> 8) & 0xFF);
+                b += f * (argb & 0xFF);
+            }
+        }
+
+        return ScalarPixelKernels.pack(a, r, g, b, alpha);
+    }
+
+    private static IntVector div255(IntVector x) {
+        x = x.add(0x80);
+
+        return x.add(x.lanewise(VectorOperators.LSHR, 8)).lanewise(VectorOperators.LSHR, 8);
+    }
+
+    private static IntVector unpremultiply(IntVector channel, IntVector row, int[] indices) {
+        row.or(channel).intoArray(indices, 0);
+
+        return IntVector.fromArray(INTS, ScalarPixelKernels.UNPREMULTIPLY, 0, indices, 0);
+    }
+
+    private static IntVector round(FloatVector channel) {
+        return toInt(channel.add(0.5F)).max(0).min(0xFF);
+    }
+
+    private static IntVector pack(IntVector a, IntVector r, IntVector g, IntVector b) {
+        return a.lanewise(VectorOperators.LSHL, 24)
+                .or(r.lanewise(VectorOperators.LSHL, 16))
+                .or(g.lanewise(VectorOperators.LSHL, 8))
+                .or(b);
+    }
+
+    private static FloatVector toFloat(IntVector vector) {
+        return (FloatVector) vector.convert(VectorOperators.I2F, 0);
+    }
+
+    private static IntVector toInt(FloatVector vector) {
+        return (IntVector) vector.convert(VectorOperators.F2I, 0);
+    }
+}
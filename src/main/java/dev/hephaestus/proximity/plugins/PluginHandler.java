@@ -7,14 +7,13 @@ import dev.hephaestus.proximity.util.Box;
 import dev.hephaestus.proximity.util.ExceptionUtil;
 import dev.hephaestus.proximity.util.RemoteFileCache;
 import dev.hephaestus.proximity.util.Result;
+import dev.hephaestus.proximity.xml.XMLUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
@@ -48,7 +47,7 @@ public class PluginHandler {
         }
 
         try {
-            DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            DocumentBuilder documentBuilder = XMLUtil.getDocumentBuilder();
             Document document = documentBuilder.parse(plugin);
             Element root = document.getDocumentElement();
             Plugin.Builder builder = new Plugin.Builder();
@@ -64,7 +63,7 @@ public class PluginHandler {
             Proximity.LOG.debug("Successfully loaded plugin");
 
             return Result.of(builder.build());
-        } catch (SAXException | ParserConfigurationException | IOException e) {
+        } catch (SAXException | IOException e) {
             return Result.error("%s: %s", e.getClass().getSimpleName(), ExceptionUtil.getErrorMessage(e));
         }
     }
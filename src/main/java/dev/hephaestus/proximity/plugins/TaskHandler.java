@@ -100,10 +100,10 @@ public final class TaskHandler implements TaskScheduler {
         handler.register(Effect.DEFINITION);
 
         handler.put(Effect.DEFINITION, "blur", Blur::apply);
-        handler.put(Effect.DEFINITION, "hsb", HSB::apply);
-        handler.put(Effect.DEFINITION, "hue", HSB::hue);
-        handler.put(Effect.DEFINITION, "saturation", HSB::saturation);
-        handler.put(Effect.DEFINITION, "brightness", HSB::brightness);
+        handler.put(Effect.DEFINITION, "hsb", (PointwiseEffect) HSB::hsb);
+        handler.put(Effect.DEFINITION, "hue", (PointwiseEffect) HSB::hue);
+        handler.put(Effect.DEFINITION, "saturation", (PointwiseEffect) HSB::saturation);
+        handler.put(Effect.DEFINITION, "brightness", (PointwiseEffect) HSB::brightness);
 
         handler.put(AttributeModifier.DEFINITION, "join", (input, data) -> {
             if (input.isJsonArray()) {
@@ -5,13 +5,13 @@ import com.github.yuchi.semver.Version;
 import dev.hephaestus.proximity.Proximity;
 import dev.hephaestus.proximity.util.ExceptionUtil;
 import dev.hephaestus.proximity.util.Result;
+import dev.hephaestus.proximity.xml.XMLUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -83,7 +83,7 @@ public final class Artifact {
                 Proximity.LOG.error("Plugin {} is missing Content-Type", this);
             }
 
-            DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            DocumentBuilder documentBuilder = XMLUtil.getDocumentBuilder();
             Document document = documentBuilder.parse(response.body());
 
             return Result.of(document.getDocumentElement());
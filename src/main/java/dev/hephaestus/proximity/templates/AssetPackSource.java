@@ -0,0 +1,139 @@
+package dev.hephaestus.proximity.templates;
+
+import dev.hephaestus.proximity.Proximity;
+import dev.hephaestus.proximity.api.json.JsonElement;
+import dev.hephaestus.proximity.api.json.JsonObject;
+import dev.hephaestus.proximity.util.ExceptionUtil;
+import dev.hephaestus.proximity.util.ImageUtil;
+import dev.hephaestus.proximity.util.RemoteFileCache;
+import dev.hephaestus.proximity.util.Result;
+import org.quiltmc.json5.JsonReader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A versioned pack of assets declared by a template's {@code <Resources type="assets">}.
+ *
+ * <p>Packs published as {@code assets.zip} are downloaded once through the cache and read from the memory mapped
+ * archive, so no file system is left open. Packs that publish a {@code manifest.json} listing their files have their
+ * files fetched one by one, but whether a file exists is answered from the manifest without asking the server. Packs
+ * that publish neither, or whose archive can't be read, fall back to asking for each file as it's needed.</p>
+ */
+public final class AssetPackSource implements TemplateSource {
+    private final RemoteFileCache cache;
+    private final String location;
+    private final RemoteFileSource fallback;
+    private volatile boolean loaded;
+    private ZipArchive archive;
+    private Set<String> files;
+
+    public AssetPackSource(RemoteFileCache cache, String location) {
+        this.cache = cache;
+        this.location = location;
+        this.fallback = new RemoteFileSource(cache, location);
+    }
+
+    /**
+     * Finds out how the pack is published the first time it's used. A pack's location includes its version, so its
+     * archive or manifest never changes once it's been downloaded.
+     */
+    private void load() {
+        if (this.loaded) return;
+
+        synchronized (this) {
+            if (this.loaded) return;
+
+            URI archive = URI.create(this.location + "/assets.zip");
+            URI manifest = URI.create(this.location + "/manifest.json");
+
+            try {
+                if (this.cache.exists(archive)) {
+                    Result<Path> path = this.cache.getPath(archive);
+
+                    if (path.isError()) {
+                        Proximity.LOG.warn("Failed to download asset pack {}: {}", this.location, path.getError());
+                    } else {
+                        ZipArchive zip = ZipArchive.open(path.get());
+
+                        this.archive = zip;
+                        this.files = zip.getNames();
+                    }
+                } else if (this.cache.exists(manifest)) {
+                    Result<Path> path = this.cache.getPath(manifest);
+
+                    if (path.isError()) {
+                        Proximity.LOG.warn("Failed to download asset manifest {}: {}", this.location, path.getError());
+                    } else {
+                        Set<String> files = new HashSet<>();
+
+                        for (JsonElement file : JsonObject.parseObject(JsonReader.json(path.get())).getAsJsonArray("files")) {
+                            files.add(normalize(file.getAsString()));
+                        }
+
+                        this.files = files;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Proximity.LOG.warn("Failed to load asset pack {}: {}", this.location, ExceptionUtil.getErrorMessage(e));
+                this.archive = null;
+                this.files = null;
+            }
+
+            this.loaded = true;
+        }
+    }
+
+    @Override
+    public BufferedImage getImage(String image) {
+        try {
+            return ImageUtil.read(this.getInputStream(image));
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(String file) throws IOException {
+        this.load();
+
+        return this.archive != null
+                ? this.archive.open(normalize(file))
+                : this.fallback.getInputStream(normalize(file));
+    }
+
+    @Override
+    public boolean exists(String file) {
+        this.load();
+
+        return this.files != null
+                ? this.files.contains(normalize(file))
+                : this.fallback.exists(normalize(file));
+    }
+
+    @Override
+    public String getTemplateName() {
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AssetPackSource source && source.location.equals(this.location);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.location.hashCode();
+    }
+
+    private static String normalize(String file) {
+        file = file.replace("\\", "/");
+
+        return file.startsWith("/") ? file.substring(1) : file;
+    }
+}
@@ -0,0 +1,126 @@
+package dev.hephaestus.proximity.templates;
+
+import dev.hephaestus.proximity.util.ImageUtil;
+import dev.hephaestus.proximity.util.IntRaster;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A template compiled into a single file by {@link TemplateCompiler}. Only the bundle's index is read when it's
+ * opened; files are memory mapped as they're asked for, and images are copied straight out of their premultiplied
+ * pixels without being decoded.
+ *
+ * <p>A bundle starts with a magic number, a format version and the offset and length of its index, which comes after
+ * the files' contents so that a bundle can be written in one pass. The index holds the number of files and, for each,
+ * its name, the offset and length of its bytes, and the width, height and offset of its pixels if it's an image.
+ * Pixels are stored as little endian {@code TYPE_INT_ARGB_PRE} rows, and each file's bytes and pixels start on an
+ * eight byte boundary.</p>
+ */
+public final class BundleTemplateSource implements TemplateSource {
+    static final int MAGIC = 0x50585442;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 20;
+
+    private final String templateName;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    public BundleTemplateSource(Path path) throws IOException {
+        String templateName = path.getFileName().toString();
+
+        this.templateName = templateName.contains(".")
+                ? templateName.substring(0, templateName.lastIndexOf("."))
+                : templateName;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        ByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_LENGTH, this.channel.size()));
+
+        if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC) {
+            throw new IOException(path + " is not a template bundle");
+        }
+
+        if (header.getInt() != VERSION) {
+            throw new IOException(path + " was compiled by a different version of Proximity and must be compiled again");
+        }
+
+        ByteBuffer index = this.channel.map(FileChannel.MapMode.READ_ONLY, header.getLong(), header.getInt());
+        int count = index.getInt();
+
+        this.entries = new HashMap<>(count * 2);
+
+        for (int i = 0; i < count; ++i) {
+            byte[] name = new byte[Short.toUnsignedInt(index.getShort())];
+
+            index.get(name);
+            this.entries.put(new String(name, StandardCharsets.UTF_8), new Entry(
+                    index.getLong(), index.getInt(), index.getInt(), index.getInt(), index.getLong()
+            ));
+        }
+    }
+
+    @Override
+    public BufferedImage getImage(String file) {
+        Entry entry = this.entries.get(FileSystemTemplateSource.normalize(file));
+
+        try {
+            if (entry == null || entry.pixels < 0) {
+                return ImageUtil.read(this.getInputStream(file));
+            }
+
+            BufferedImage image = ImageUtil.createCanvas(entry.width, entry.height);
+            IntRaster raster = IntRaster.of(image);
+            IntBuffer pixels = this.channel.map(FileChannel.MapMode.READ_ONLY, entry.pixels, (long) entry.width * entry.height * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asIntBuffer();
+
+            for (int y = 0; y < entry.height; ++y) {
+                pixels.get(raster.getPixels(), raster.getRowOffset(y), entry.width);
+            }
+
+            raster.commit();
+
+            return image;
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(String file) throws IOException {
+        Entry entry = this.entries.get(FileSystemTemplateSource.normalize(file));
+
+        if (entry == null) {
+            throw new NoSuchFileException(file);
+        }
+
+        return new ByteBufferInputStream(this.channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length));
+    }
+
+    @Override
+    public boolean exists(String file) {
+        return this.entries.containsKey(FileSystemTemplateSource.normalize(file));
+    }
+
+    @Override
+    public String getTemplateName() {
+        return this.templateName;
+    }
+
+    /**
+     * @param pixels the offset of the image's pixels, or -1 if the file isn't an image
+     */
+    private record Entry(long offset, int length, int width, int height, long pixels) {
+    }
+}
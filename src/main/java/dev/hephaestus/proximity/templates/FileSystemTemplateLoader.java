@@ -10,7 +10,11 @@ public record FileSystemTemplateLoader(Path root) implements TemplateLoader {
     @Override
     public Result<TemplateSource> getTemplateFiles(String name) {
         try {
-            return Result.of(new FileSystemTemplateSource(this.root.resolve(name)));
+            Path path = this.root.resolve(name);
+
+            return Result.of(name.endsWith(".bundle")
+                    ? new BundleTemplateSource(path)
+                    : new FileSystemTemplateSource(path));
         } catch (IOException e) {
             return Result.error(ExceptionUtil.getErrorMessage(e));
         }
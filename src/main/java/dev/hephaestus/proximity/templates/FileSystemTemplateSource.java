@@ -1,18 +1,32 @@
 package dev.hephaestus.proximity.templates;
 
-import javax.imageio.ImageIO;
+import dev.hephaestus.proximity.Proximity;
+import dev.hephaestus.proximity.util.ExceptionUtil;
+import dev.hephaestus.proximity.util.ImageUtil;
+
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.function.Function;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * A template read from a zip file or a directory. Its files are indexed when it's loaded, so checking whether a file
+ * exists in a zip never touches the disk. A directory can change after it's indexed, and may be on a case-insensitive
+ * file system, so files missing from its index are looked for on disk.
+ */
 public class FileSystemTemplateSource implements TemplateSource {
     private final String templateName;
-    private final Function<String, Path> pathGetter;
+    private final ZipArchive archive;
+    private final Path root;
+    private final Set<String> files;
+    private final boolean directory;
 
     public FileSystemTemplateSource(Path path) throws IOException {
         String templateName = path.getFileName().toString();
@@ -22,24 +36,46 @@ public class FileSystemTemplateSource implements TemplateSource {
                 : templateName;
 
         if (path.toString().endsWith(".zip")) {
-            FileSystem fileSystem = FileSystems.newFileSystem(path);
-            this.pathGetter = fileSystem::getPath;
+            ZipArchive archive = null;
+
+            try {
+                archive = ZipArchive.open(path);
+            } catch (IOException e) {
+                Proximity.LOG.debug("Reading {} through the zip file system: {}", path, ExceptionUtil.getErrorMessage(e));
+            }
+
+            if (archive != null) {
+                this.archive = archive;
+                this.root = null;
+                this.files = archive.getNames();
+                this.directory = false;
+            } else {
+                this.archive = null;
+                this.root = FileSystems.newFileSystem(path).getPath("/");
+                this.files = index(this.root);
+                this.directory = false;
+            }
         } else if (Files.isDirectory(path)) {
-            this.pathGetter = path::resolve;
+            this.archive = null;
+            this.root = path;
+            this.files = index(path);
+            this.directory = true;
         } else {
             throw new RuntimeException("Template must be either a zip file or a directory!");
         }
     }
 
+    private static Set<String> index(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> root.relativize(path).toString().replace(root.getFileSystem().getSeparator(), "/"))
+                    .collect(Collectors.toUnmodifiableSet());
+        }
+    }
+
     public BufferedImage getImage(String image) {
         try {
-            if (image.startsWith("/")) {
-                image = image.substring(1);
-            }
-
-            Path path = this.pathGetter.apply(image);
-
-            return ImageIO.read(Files.newInputStream(path));
+            return ImageUtil.read(this.getInputStream(image));
         } catch (IOException exception) {
             throw new RuntimeException(exception);
         }
@@ -47,16 +83,47 @@ public class FileSystemTemplateSource implements TemplateSource {
 
     @Override
     public InputStream getInputStream(String name) throws IOException {
-        return Files.newInputStream(this.pathGetter.apply(name));
+        name = normalize(name);
+
+        return this.archive != null
+                ? this.archive.open(name)
+                : Files.newInputStream(this.root.resolve(name));
     }
 
     @Override
     public boolean exists(String file) {
-        return Files.exists(this.pathGetter.apply(file));
+        String name = normalize(file);
+
+        return this.files.contains(name) || this.directory && Files.exists(this.root.resolve(name));
+    }
+
+    /**
+     * Returns the names of every file in the template.
+     */
+    Set<String> getFiles() throws IOException {
+        return this.directory ? index(this.root) : this.files;
     }
 
     @Override
     public String getTemplateName() {
         return this.templateName;
     }
+
+    /**
+     * Turns a file name into the form it's indexed under, relative to the template's root with forward slashes and
+     * without any {@code .} or {@code ..} segments.
+     */
+    static String normalize(String file) {
+        Deque<String> segments = new ArrayDeque<>();
+
+        for (String segment : file.replace('\\', '/').split("/")) {
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !segment.equals(".")) {
+                segments.addLast(segment);
+            }
+        }
+
+        return String.join("/", segments);
+    }
 }
@@ -1,8 +1,8 @@
 package dev.hephaestus.proximity.templates;
 
+import dev.hephaestus.proximity.util.ImageUtil;
 import dev.hephaestus.proximity.util.RemoteFileCache;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,7 +27,7 @@ public final class RemoteFileSource implements TemplateSource {
             }
 
 
-            return ImageIO.read(this.cache.open(URI.create(this.location + "/" + URLEncoder.encode(image.replace("\\", "/"), StandardCharsets.UTF_8))));
+            return ImageUtil.read(this.cache.open(URI.create(this.location + "/" + URLEncoder.encode(image.replace("\\", "/"), StandardCharsets.UTF_8))));
         } catch (IOException exception) {
             throw new RuntimeException(exception);
         }
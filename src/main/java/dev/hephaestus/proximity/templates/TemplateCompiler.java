@@ -0,0 +1,191 @@
+package dev.hephaestus.proximity.templates;
+
+import dev.hephaestus.proximity.util.ExceptionUtil;
+import dev.hephaestus.proximity.util.ImageUtil;
+import dev.hephaestus.proximity.util.IntRaster;
+import dev.hephaestus.proximity.util.Result;
+import dev.hephaestus.proximity.xml.XMLUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Compiles a template directory or zip file into a {@link BundleTemplateSource}. The bundle holds every file in the
+ * template, with {@code template.xml}'s imports already resolved and images already decoded to premultiplied pixels.
+ */
+public final class TemplateCompiler {
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+
+    private TemplateCompiler() {
+    }
+
+    public static Result<Path> compile(Path template, Path output) {
+        Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+
+        try {
+            FileSystemTemplateSource source = new FileSystemTemplateSource(template);
+            List<String> names = new ArrayList<>(source.getFiles());
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(index);
+
+            names.sort(null);
+            out.writeInt(names.size());
+
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.position(BundleTemplateSource.HEADER_LENGTH);
+
+                for (String name : names) {
+                    byte[] bytes;
+
+                    if (name.equals("template.xml")) {
+                        Result<byte[]> resolved = resolveTemplate(source);
+
+                        if (resolved.isError()) {
+                            return resolved.unwrap();
+                        }
+
+                        bytes = resolved.get();
+                    } else {
+                        try (InputStream input = source.getInputStream(name)) {
+                            bytes = input.readAllBytes();
+                        }
+                    }
+
+                    long offset = write(channel, ByteBuffer.wrap(bytes));
+                    BufferedImage image = isImage(name) ? ImageUtil.read(new ByteArrayInputStream(bytes)) : null;
+                    long pixels = image == null ? -1 : write(channel, toPixels(image));
+                    byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+
+                    out.writeShort(encodedName.length);
+                    out.write(encodedName);
+                    out.writeLong(offset);
+                    out.writeInt(bytes.length);
+                    out.writeInt(image == null ? 0 : image.getWidth());
+                    out.writeInt(image == null ? 0 : image.getHeight());
+                    out.writeLong(pixels);
+                }
+
+                long indexOffset = write(channel, ByteBuffer.wrap(index.toByteArray()));
+                ByteBuffer header = ByteBuffer.allocate(BundleTemplateSource.HEADER_LENGTH);
+
+                header.putInt(BundleTemplateSource.MAGIC)
+                        .putInt(BundleTemplateSource.VERSION)
+                        .putLong(indexOffset)
+                        .putInt(index.size())
+                        .flip();
+
+                channel.write(header, 0);
+            }
+
+            Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING);
+
+            return Result.of(output);
+        } catch (IOException | RuntimeException e) {
+            return Result.error("Failed to compile template '%s': %s", template, ExceptionUtil.getErrorMessage(e));
+        } finally {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Loads {@code template.xml} with its imports inlined, and writes it back out. Comments are kept as user data by
+     * {@link dev.hephaestus.proximity.xml.XMLHandler}, so they're turned back into comment nodes to survive the trip.
+     */
+    private static Result<byte[]> resolveTemplate(TemplateSource source) {
+        return XMLUtil.load(source, "template.xml")
+                .then(root -> XMLUtil.resolveImports(root, source))
+                .then(root -> {
+                    Document document = root.getOwnerDocument();
+                    List<Node> imports = new ArrayList<>();
+                    NodeList list = root.getElementsByTagName("Imports");
+
+                    for (int i = 0; i < list.getLength(); ++i) {
+                        imports.add(list.item(i));
+                    }
+
+                    imports.forEach(node -> node.getParentNode().removeChild(node));
+
+                    List<Element> commented = new ArrayList<>();
+                    NodeList elements = document.getElementsByTagName("*");
+
+                    for (int i = 0; i < elements.getLength(); ++i) {
+                        if (elements.item(i).getUserData("comment") != null) {
+                            commented.add((Element) elements.item(i));
+                        }
+                    }
+
+                    for (Element element : commented) {
+                        element.getParentNode().insertBefore(document.createComment((String) element.getUserData("comment")), element);
+                    }
+
+                    try {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+                        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(bytes));
+
+                        return Result.of(bytes.toByteArray());
+                    } catch (TransformerException e) {
+                        return Result.error("Failed to write template.xml: %s", ExceptionUtil.getErrorMessage(e));
+                    }
+                });
+    }
+
+    private static boolean isImage(String name) {
+        return IMAGE_EXTENSIONS.contains(name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static ByteBuffer toPixels(BufferedImage image) {
+        IntRaster raster = IntRaster.of(image);
+        ByteBuffer buffer = ByteBuffer.allocate(raster.getWidth() * raster.getHeight() * 4).order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer pixels = buffer.asIntBuffer();
+
+        for (int y = 0; y < raster.getHeight(); ++y) {
+            pixels.put(raster.getPixels(), raster.getRowOffset(y), raster.getWidth());
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Writes a buffer at the next eight byte boundary, returning where it starts.
+     */
+    private static long write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long offset = (channel.position() + 7) & ~7L;
+
+        channel.position(offset);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        return offset;
+    }
+}
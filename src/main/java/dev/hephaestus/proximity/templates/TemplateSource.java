@@ -3,9 +3,10 @@ package dev.hephaestus.proximity.templates;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public interface TemplateSource {
     /**
@@ -19,44 +20,57 @@ public interface TemplateSource {
 
     final class Compound implements TemplateSource {
         private final String name;
-        public final List<TemplateSource> wrapped;
+        private final CopyOnWriteArrayList<TemplateSource> wrapped;
+        // Which wrapped source each file was found in, so that looking a file up again is a single map lookup. Misses
+        // aren't kept, since a file may be added to a template directory later.
+        private final Map<String, TemplateSource> resolved = new ConcurrentHashMap<>();
 
         public Compound(String name, TemplateSource... sources) {
             this.name = name;
-            this.wrapped = new ArrayList<>(Arrays.asList(sources));
+            this.wrapped = new CopyOnWriteArrayList<>(Arrays.asList(sources));
         }
 
-        @Override
-        public BufferedImage getImage(String file) {
-            for (TemplateSource source : this.wrapped) {
-                if (source.exists(file)) {
-                    return source.getImage(file);
+        /**
+         * Adds a source unless an equal one is already wrapped. Sources may be added while others are being read.
+         */
+        public void addIfAbsent(TemplateSource source) {
+            if (this.wrapped.addIfAbsent(source)) {
+                this.resolved.clear();
+            }
+        }
+
+        private TemplateSource resolve(String file) {
+            TemplateSource resolved = this.resolved.get(file);
+
+            if (resolved == null) {
+                for (TemplateSource source : this.wrapped) {
+                    if (source.exists(file)) {
+                        this.resolved.putIfAbsent(file, source);
+                        return source;
+                    }
                 }
             }
 
-            return null;
+            return resolved;
+        }
+
+        @Override
+        public BufferedImage getImage(String file) {
+            TemplateSource source = this.resolve(file);
+
+            return source == null ? null : source.getImage(file);
         }
 
         @Override
         public InputStream getInputStream(String file) throws IOException {
-            for (TemplateSource source : this.wrapped) {
-                if (source.exists(file)) {
-                    return source.getInputStream(file);
-                }
-            }
+            TemplateSource source = this.resolve(file);
 
-            return null;
+            return source == null ? null : source.getInputStream(file);
         }
 
         @Override
         public boolean exists(String file) {
-            for (TemplateSource source : this.wrapped) {
-                if (source.exists(file)) {
-                    return true;
-                }
-            }
-
-            return false;
+            return this.resolve(file) != null;
         }
 
         @Override
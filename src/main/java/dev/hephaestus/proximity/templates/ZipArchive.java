@@ -0,0 +1,162 @@
+package dev.hephaestus.proximity.templates;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A zipped template, memory mapped and indexed once when it's opened. Stored entries are read straight out of the
+ * mapping and deflated entries are inflated in one go, since their size is known up front.
+ *
+ * <p>Only plain zip files are supported. Archives that use zip64 or compression methods other than deflate are
+ * rejected with an {@link IOException}, and should be read through the zip file system instead.</p>
+ */
+final class ZipArchive {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int STORED = 0, DEFLATED = 8;
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    private ZipArchive(ByteBuffer buffer, Map<String, Entry> entries) {
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    static ZipArchive open(Path path) throws IOException {
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive is too large to map");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int end = findEndOfCentralDirectory(buffer);
+        int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new IOException("Zip64 archives are not supported");
+        }
+
+        Map<String, Entry> entries = new HashMap<>(count * 2);
+        int position = (int) offset;
+
+        for (int i = 0; i < count; ++i) {
+            if (buffer.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new IOException("Malformed central directory");
+            }
+
+            int method = Short.toUnsignedInt(buffer.getShort(position + 10));
+            long compressedSize = Integer.toUnsignedLong(buffer.getInt(position + 20));
+            long size = Integer.toUnsignedLong(buffer.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            long header = Integer.toUnsignedLong(buffer.getInt(position + 42));
+            byte[] name = new byte[nameLength];
+
+            buffer.get(position + 46, name);
+            position += 46 + nameLength + extraLength + commentLength;
+
+            String string = new String(name, StandardCharsets.UTF_8);
+
+            if (string.endsWith("/")) continue;
+
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || header == 0xFFFFFFFFL) {
+                throw new IOException("Zip64 archives are not supported");
+            }
+
+            if (method != STORED && method != DEFLATED) {
+                throw new IOException("Unsupported compression method " + method + " for " + string);
+            }
+
+            if (buffer.getInt((int) header) != LOCAL_HEADER) {
+                throw new IOException("Malformed local header for " + string);
+            }
+
+            // The local header's name and extra field can differ in length from the central directory's.
+            int data = (int) header + 30
+                    + Short.toUnsignedInt(buffer.getShort((int) header + 26))
+                    + Short.toUnsignedInt(buffer.getShort((int) header + 28));
+
+            entries.put(string, new Entry(data, (int) compressedSize, (int) size, method));
+        }
+
+        return new ZipArchive(buffer, entries);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) throws IOException {
+        // The record is at least 22 bytes long, followed by a comment of at most 65535 bytes.
+        for (int i = buffer.limit() - 22; i >= Math.max(0, buffer.limit() - 22 - 0xFFFF); --i) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                return i;
+            }
+        }
+
+        throw new IOException("Not a zip file");
+    }
+
+    Set<String> getNames() {
+        return Collections.unmodifiableSet(this.entries.keySet());
+    }
+
+    InputStream open(String name) throws IOException {
+        Entry entry = this.entries.get(name);
+
+        if (entry == null) {
+            throw new NoSuchFileException(name);
+        }
+
+        ByteBuffer data = this.buffer.slice(entry.offset, entry.compressedSize);
+
+        if (entry.method == STORED) {
+            return new ByteBufferInputStream(data);
+        }
+
+        Inflater inflater = INFLATER.get();
+        byte[] bytes = new byte[entry.size];
+        int length = 0;
+
+        inflater.reset();
+        inflater.setInput(data);
+
+        try {
+            while (length < bytes.length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, bytes.length - length);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated entry " + name);
+                }
+
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry " + name, e);
+        }
+
+        return new ByteArrayInputStream(bytes, 0, length);
+    }
+
+    private record Entry(int offset, int compressedSize, int size, int method) {
+    }
+}
@@ -20,7 +20,7 @@ public class EffectLayerRenderer extends LayerRenderer {
     public Result<Optional<Rectangles>> renderLayer(RenderableData card, RenderableData.XMLElement element, StatefulGraphics graphics, Rectangles wrap, boolean draw, Box<Float> scale, Rectangle2D bounds) {
         Effect effect = card.getTaskHandler().getTask("Effect", element.getAttribute("name"));
 
-        if (effect != null) {
+        if (draw && effect != null) {
             effect.apply(card, graphics.getImage(), element);
         }
 
@@ -29,4 +29,9 @@ public class EffectLayerRenderer extends LayerRenderer {
                 graphics.getImage().getHeight()
         ))));
     }
+
+    @Override
+    public boolean readsCanvas(RenderableData card, RenderableData.XMLElement element) {
+        return true;
+    }
 }
@@ -66,10 +66,18 @@ public class ForkLayerRenderer extends ParentLayerRenderer {
 
         element.setAttribute("id", passingBranch);
 
-        for (var pair : children) {
+        List<Rectangles> occluders = draw ? getOccluders(card, graphics, children) : null;
+
+        for (int i = 0; i < children.size(); ++i) {
+            var pair = children.get(i);
+
+            if (draw) graphics.pushOccluders(occluders.get(i));
+
             Result<Optional<Rectangles>> result = pair.right().render(card, pair.left(), graphics, wrap, draw, scale, bounds)
                     .ifError(errors::add);
 
+            if (draw) graphics.pop();
+
             if (result.isOk() && result.get().isPresent()) {
                 resultBounds.addAll(result.get().get());
             }
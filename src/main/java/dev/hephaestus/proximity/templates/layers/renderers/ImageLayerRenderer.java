@@ -4,7 +4,6 @@ import dev.hephaestus.proximity.util.*;
 import dev.hephaestus.proximity.xml.LayerRenderer;
 import dev.hephaestus.proximity.xml.RenderableData;
 
-import javax.imageio.ImageIO;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
@@ -13,14 +12,15 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ImageLayerRenderer extends LayerRenderer {
-    private static final Map<RenderableData.XMLElement, Map<String, Pair<Integer, Integer>>> IMAGE_DIMENSION_CACHE = new ConcurrentHashMap<>();
+    // Size and opaque region of each scaled template asset, shared between cards. Per-card art from a url is never
+    // cached, since it would only be looked up again by reprints of the same card.
+    private static final Map<String, AssetInfo> ASSETS = new ConcurrentHashMap<>();
 
     public ImageLayerRenderer(RenderableData data) {
         super( data);
@@ -34,23 +34,11 @@ public class ImageLayerRenderer extends LayerRenderer {
         ContentAlignment verticalAlignment = element.hasAttribute("vertical_alignment") ? ContentAlignment.valueOf(element.getAttribute("vertical_alignment").toUpperCase(Locale.ROOT)) : ContentAlignment.START;
         ContentAlignment horizontalAlignment = element.hasAttribute("horizontal_alignment") ? ContentAlignment.valueOf(element.getAttribute("horizontal_alignment").toUpperCase(Locale.ROOT)) : ContentAlignment.START;
 
-        String cacheKey;
-
-        if (element.hasAttribute("url")) {
-            cacheKey = element.getAttribute("url");
-        } else {
-            cacheKey = element.hasAttribute("src") ? element.getAttribute("src") : null;
-            cacheKey = ParsingUtil.getFileLocation(element.getParentId(), element.getAttribute("id"), cacheKey) + ".png";
-        }
-
         if (draw) {
-            Integer width = element.hasAttribute("width") ? Integer.decode(element.getAttribute("width")) : null;
-            Integer height = element.hasAttribute("height") ? Integer.decode(element.getAttribute("height")) : null;
-
-            BufferedImage image = scale(this.getImage(element), width, height);
+            BufferedImage image = this.getScaledImage(element);
 
-            if (image == null) {
-                throw new RuntimeException("Image '" + cacheKey + "' could not be found.");
+            if (!element.hasAttribute("url")) {
+                ASSETS.computeIfAbsent(this.getAssetKey(card, element), key -> AssetInfo.of(image));
             }
 
             x = align(x, image.getWidth(), horizontalAlignment);
@@ -67,26 +55,105 @@ public class ImageLayerRenderer extends LayerRenderer {
                     image.getHeight()
             ))));
         } else {
-            Pair<Integer, Integer> dimensions = IMAGE_DIMENSION_CACHE.computeIfAbsent(element, e -> new HashMap<>()).computeIfAbsent(cacheKey, key -> {
-                Integer width = element.hasAttribute("width") ? Integer.decode(element.getAttribute("width")) : null;
-                Integer height = element.hasAttribute("height") ? Integer.decode(element.getAttribute("height")) : null;
+            AssetInfo info = this.getAssetInfo(card, element);
+
+            x = align(x, info.width(), horizontalAlignment);
+            y = align(y, info.height(), verticalAlignment);
+
+            return Result.of(Optional.of(Rectangles.singleton(new Rectangle2D.Double(x, y, info.width(), info.height()))));
+        }
+    }
+
+    @Override
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        return this.getKnownAssetInfo(card, element)
+                .map(info -> new Rectangle(this.getX(element, info), this.getY(element, info), info.width(), info.height()));
+    }
+
+    @Override
+    protected Rectangles getOpaqueLayerBounds(RenderableData card, RenderableData.XMLElement element) {
+        Optional<AssetInfo> info = this.getKnownAssetInfo(card, element);
+
+        if (info.isEmpty() || info.get().opaque() == null) {
+            return new Rectangles();
+        }
+
+        Rectangle opaque = new Rectangle(info.get().opaque());
+
+        opaque.translate(this.getX(element, info.get()), this.getY(element, info.get()));
+
+        return Rectangles.singleton(opaque);
+    }
+
+    private int getX(RenderableData.XMLElement element, AssetInfo info) {
+        int x = (element.hasAttribute("x") ? Integer.decode(element.getAttribute("x")) : 0);
+        ContentAlignment horizontalAlignment = element.hasAttribute("horizontal_alignment") ? ContentAlignment.valueOf(element.getAttribute("horizontal_alignment").toUpperCase(Locale.ROOT)) : ContentAlignment.START;
+
+        return align(x, info.width(), horizontalAlignment);
+    }
+
+    private int getY(RenderableData.XMLElement element, AssetInfo info) {
+        int y = (element.hasAttribute("y") ? Integer.decode(element.getAttribute("y")) : 0);
+        ContentAlignment verticalAlignment = element.hasAttribute("vertical_alignment") ? ContentAlignment.valueOf(element.getAttribute("vertical_alignment").toUpperCase(Locale.ROOT)) : ContentAlignment.START;
+
+        return align(y, info.height(), verticalAlignment);
+    }
+
+    private String getLocation(RenderableData.XMLElement element) {
+        if (element.hasAttribute("url")) {
+            return element.getAttribute("url");
+        } else {
+            String src = element.hasAttribute("src") ? element.getAttribute("src") : null;
 
-                BufferedImage image = this.getImage(element);
+            return ParsingUtil.getFileLocation(element.getParentId(), element.getAttribute("id"), src) + ".png";
+        }
+    }
 
-                if (image == null) {
-                    throw new RuntimeException("Image '" + key + "' could not be found.");
-                }
+    private String getAssetKey(RenderableData card, RenderableData.XMLElement element) {
+        String width = element.hasAttribute("width") ? element.getAttribute("width") : "";
+        String height = element.hasAttribute("height") ? element.getAttribute("height") : "";
 
-                image = scale(image, width, height);
+        return card.getTemplateName() + "/" + this.getLocation(element) + "@" + width + "x" + height;
+    }
 
-                return new Pair<>(image.getWidth(), image.getHeight());
-            });
+    /**
+     * Returns what can be known about an asset without decoding it: its cached metadata if it has been drawn before,
+     * or its size if both its width and height are given.
+     */
+    private Optional<AssetInfo> getKnownAssetInfo(RenderableData card, RenderableData.XMLElement element) {
+        AssetInfo info = element.hasAttribute("url") ? null : ASSETS.get(this.getAssetKey(card, element));
 
-            x = align(x, dimensions.left(), horizontalAlignment);
-            y = align(y, dimensions.right(), verticalAlignment);
+        if (info == null && element.hasAttribute("width") && element.hasAttribute("height")) {
+            info = new AssetInfo(Integer.decode(element.getAttribute("width")), Integer.decode(element.getAttribute("height")), null);
+        }
+
+        return Optional.ofNullable(info);
+    }
 
-            return Result.of(Optional.of(Rectangles.singleton(new Rectangle2D.Double(x, y, dimensions.left(), dimensions.right()))));
+    private AssetInfo getAssetInfo(RenderableData card, RenderableData.XMLElement element) {
+        Optional<AssetInfo> known = this.getKnownAssetInfo(card, element);
+
+        if (known.isPresent()) {
+            return known.get();
+        } else if (element.hasAttribute("url")) {
+            BufferedImage image = this.getScaledImage(element);
+
+            return new AssetInfo(image.getWidth(), image.getHeight(), null);
         }
+
+        return ASSETS.computeIfAbsent(this.getAssetKey(card, element), key -> AssetInfo.of(this.getScaledImage(element)));
+    }
+
+    private BufferedImage getScaledImage(RenderableData.XMLElement element) {
+        Integer width = element.hasAttribute("width") ? Integer.decode(element.getAttribute("width")) : null;
+        Integer height = element.hasAttribute("height") ? Integer.decode(element.getAttribute("height")) : null;
+        BufferedImage image = this.getImage(element);
+
+        if (image == null) {
+            throw new RuntimeException("Image '" + this.getLocation(element) + "' could not be found.");
+        }
+
+        return scale(image, width, height);
     }
 
     private int align(int pos, int size, ContentAlignment alignment) {
@@ -98,22 +165,23 @@ public class ImageLayerRenderer extends LayerRenderer {
         return pos;
     }
 
+    private record AssetInfo(int width, int height, Rectangle opaque) {
+        static AssetInfo of(BufferedImage image) {
+            return new AssetInfo(image.getWidth(), image.getHeight(), ImageUtil.findOpaqueRectangle(image));
+        }
+    }
+
     private BufferedImage getImage(RenderableData.XMLElement element) {
         if (element.hasAttribute("url")) {
             try {
                 InputStream input = this.data.getProximity().getRemoteFileCache().open(URI.create(element.getAttribute("url")));
 
-                synchronized (ImageLayerRenderer.class) {
-                    return ImageIO.read(input);
-                }
+                return ImageUtil.read(input);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         } else {
-            String src = element.hasAttribute("src") ? element.getAttribute("src") : null;
-            src = ParsingUtil.getFileLocation(element.getParentId(), element.getAttribute("id"), src) + ".png";
-
-            return this.data.getImage(src);
+            return this.data.getImage(this.getLocation(element));
         }
     }
 
@@ -129,7 +197,7 @@ public class ImageLayerRenderer extends LayerRenderer {
                 height = (int) Math.round(width / ratio);
             }
 
-            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            result = ImageUtil.createCanvas(width, height);
             float ri = image.getHeight() / (float) image.getWidth();
             float rs = height / (float) width;
 
@@ -19,10 +19,18 @@ public class LayerGroupRenderer extends ParentLayerRenderer {
         List<String> errors = new ArrayList<>();
         Rectangles resultBounds = new Rectangles();
 
-        for (var pair : children) {
+        List<Rectangles> occluders = draw ? getOccluders(card, graphics, children) : null;
+
+        for (int i = 0; i < children.size(); ++i) {
+            var pair = children.get(i);
+
+            if (draw) graphics.pushOccluders(occluders.get(i));
+
             Result<Optional<Rectangles>> result = pair.right().render(card, pair.left(), graphics, wrap, draw, scale, bounds)
                     .ifError(errors::add);
 
+            if (draw) graphics.pop();
+
             if (result.isOk() && result.get().isPresent()) {
                 resultBounds.addAll(result.get().get());
             }
@@ -32,4 +40,44 @@ public class LayerGroupRenderer extends ParentLayerRenderer {
                 ? Result.error("Error(s) rendering children for layer %s:\n\t%s", element.getId(), String.join("\n\t", errors))
                 : Result.of(Optional.of(resultBounds));
     }
+
+    @Override
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        return this.withChildren(element, children -> {
+            Rectangle2D union = null;
+
+            for (var pair : children) {
+                Optional<Rectangle2D> bounds = pair.right().getDrawBounds(card, pair.left());
+
+                if (bounds.isEmpty()) {
+                    return Optional.<Rectangle2D>empty();
+                } else if (!bounds.get().isEmpty()) {
+                    if (union == null) {
+                        union = bounds.get().getBounds2D();
+                    } else {
+                        union.add(bounds.get());
+                    }
+                }
+            }
+
+            return Optional.of(union == null ? new Rectangle2D.Double() : union);
+        });
+    }
+
+    @Override
+    protected Rectangles getOpaqueLayerBounds(RenderableData card, RenderableData.XMLElement element) {
+        return this.withChildren(element, children -> {
+            Rectangles opaque = new Rectangles();
+
+            for (var pair : children) {
+                if (pair.right().readsCanvas(card, pair.left())) {
+                    opaque.clear();
+                } else {
+                    opaque.addAll(pair.right().getOpaqueBounds(card, pair.left()));
+                }
+            }
+
+            return opaque;
+        });
+    }
 }
@@ -7,7 +7,6 @@ import dev.hephaestus.proximity.xml.LayerRenderer;
 import dev.hephaestus.proximity.xml.RenderableData;
 
 import java.awt.BasicStroke;
-import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
@@ -108,7 +107,7 @@ public class LayoutElementRenderer extends ParentLayerRenderer {
 
             if (outerBounds != null) {
                 e.pushAttribute(this.offLine, offLine);
-                pair.left().setProperty(LayerProperty.BOUNDS, new Rectangle2D.Double(
+                e.pushProperty(LayerProperty.BOUNDS, new Rectangle2D.Double(
                         offLine,
                         inLine,
                         this.offLineSizeGetter.apply(outerBounds).intValue(),
@@ -120,6 +119,7 @@ public class LayoutElementRenderer extends ParentLayerRenderer {
 
             if (outerBounds != null) {
                 e.popAttribute();
+                e.popProperty();
             }
 
             e.popAttribute();
@@ -135,8 +135,8 @@ public class LayoutElementRenderer extends ParentLayerRenderer {
                     resultBounds.addAll(layerBounds);
 
                     if (draw && Values.DEBUG.get(card)) {
-                        graphics.push(new BasicStroke(5), Graphics2D::setStroke, Graphics2D::getStroke);
-                        graphics.push(DrawingUtil.getColor(0xFFFFF00), Graphics2D::setColor, Graphics2D::getColor);
+                        graphics.push(new BasicStroke(5));
+                        graphics.push(DrawingUtil.getColor(0xFFFFF00));
 
                         for (Rectangle2D rectangle : layerBounds) {
                             graphics.draw(rectangle);
@@ -151,8 +151,8 @@ public class LayoutElementRenderer extends ParentLayerRenderer {
         }
 
         if (draw && outerBounds != null &&  Values.DEBUG.get(card)) {
-            graphics.push(new BasicStroke(5), Graphics2D::setStroke, Graphics2D::getStroke);
-            graphics.push(DrawingUtil.getColor(0xFF00FFFF), Graphics2D::setColor, Graphics2D::getColor);
+            graphics.push(new BasicStroke(5));
+            graphics.push(DrawingUtil.getColor(0xFF00FFFF));
             graphics.drawRect((int) outerBounds.getX(), (int) outerBounds.getY(), (int) outerBounds.getWidth(), (int) outerBounds.getHeight());
             graphics.pop(2);
         }
@@ -1,6 +1,8 @@
 package dev.hephaestus.proximity.templates.layers.renderers;
 
+import dev.hephaestus.proximity.effects.PixelKernels;
 import dev.hephaestus.proximity.util.Box;
+import dev.hephaestus.proximity.util.IntRaster;
 import dev.hephaestus.proximity.util.Rectangles;
 import dev.hephaestus.proximity.util.Result;
 import dev.hephaestus.proximity.util.StatefulGraphics;
@@ -24,19 +26,50 @@ public class NoiseLayerRenderer extends LayerRenderer {
         int height = Integer.decode(element.getAttribute("height"));
 
         if (width > 0 && height > 0 && x < card.getWidth() && y < card.getHeight()) {
-            int[] colors = graphics.getImage().getRGB(x, y, width, height, null, 0, width);
+            if (!draw) {
+                return Result.of(Optional.of(Rectangles.singleton(new Rectangle2D.Double(x, y, width, height))));
+            }
+
+            IntRaster raster = IntRaster.of(graphics.getImage());
+            int[] pixels = raster.getPixels();
+            int left = Math.max(x, 0), right = Math.min(x + width, raster.getWidth());
+            int top = Math.max(y, 0), bottom = Math.min(y + height, raster.getHeight());
 
             Random random = new Random();
 
-            for (int i = 0; i < colors.length; ++i) {
-                colors[i] = random.nextInt();
+            for (int row = top; row < bottom; ++row) {
+                int offset = raster.getOffset(left, row);
+
+                for (int i = offset; i < offset + right - left; ++i) {
+                    pixels[i] = random.nextInt();
+                }
+
+                if (raster.isPremultiplied()) {
+                    PixelKernels.INSTANCE.premultiply(pixels, offset, right - left);
+                }
             }
 
-            graphics.getImage().setRGB(x, y, width, height, colors, 0, width);
+            raster.commit();
 
             return Result.of(Optional.of(Rectangles.singleton(new Rectangle2D.Double(x, y, width, height))));
         } else {
             return Result.of(Optional.empty());
         }
     }
+
+    @Override
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        int x = (element.hasAttribute("x") ? Integer.decode(element.getAttribute("x")) : 0);
+        int y = (element.hasAttribute("y") ? Integer.decode(element.getAttribute("y")) : 0);
+        int width = Integer.decode(element.getAttribute("width"));
+        int height = Integer.decode(element.getAttribute("height"));
+
+        return Optional.of(new Rectangle2D.Double(x, y, width, height));
+    }
+
+    @Override
+    public boolean readsCanvas(RenderableData card, RenderableData.XMLElement element) {
+        // Noise replaces pixels instead of compositing over them.
+        return true;
+    }
 }
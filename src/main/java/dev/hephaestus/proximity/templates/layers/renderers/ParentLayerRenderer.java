@@ -8,6 +8,7 @@ import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 public abstract class ParentLayerRenderer extends LayerRenderer {
     public ParentLayerRenderer(RenderableData data) {
@@ -18,6 +19,26 @@ public abstract class ParentLayerRenderer extends LayerRenderer {
 
     @Override
     public final Result<Optional<Rectangles>> renderLayer(RenderableData card, RenderableData.XMLElement element, StatefulGraphics graphics, Rectangles wrap, boolean draw, Box<Float> scale, Rectangle2D bounds) {
+        return this.withChildren(element, children -> this.renderLayer(card, element, graphics, wrap, draw, scale, bounds, children));
+    }
+
+    @Override
+    public boolean readsCanvas(RenderableData card, RenderableData.XMLElement element) {
+        return this.withChildren(element, children -> {
+            for (var pair : children) {
+                if (pair.right().readsCanvas(card, pair.left())) {
+                    return true;
+                }
+            }
+
+            return false;
+        });
+    }
+
+    /**
+     * Calls the given function with this layer's children, each positioned relative to this layer.
+     */
+    protected final <T> T withChildren(RenderableData.XMLElement element, Function<List<Pair<RenderableData.XMLElement, LayerRenderer>>, T> function) {
         int x = (element.hasAttribute("x") ? Integer.decode(element.getAttribute("x")) : 0);
         int y = (element.hasAttribute("y") ? Integer.decode(element.getAttribute("y")) : 0);
 
@@ -40,7 +61,7 @@ public abstract class ParentLayerRenderer extends LayerRenderer {
             e.pushAttribute("y", Integer.toString(eY));
         }
 
-        Result<Optional<Rectangles>> result = this.renderLayer(card, element, graphics, wrap, draw, scale, bounds, children);
+        T result = function.apply(children);
 
         for (var pair : children) {
             pair.left().popAttributes(2);
@@ -8,7 +8,6 @@ import dev.hephaestus.proximity.xml.LayerRenderer;
 import dev.hephaestus.proximity.xml.RenderableData;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.util.Optional;
 
@@ -29,11 +28,35 @@ public class RectangleLayerRenderer extends LayerRenderer {
         Rectangle2D rectangle = new Rectangle2D.Double(x, y, width, height);
 
         if (draw && (color & 0xFF000000) != 0) {
-            graphics.push(new Color(color, (color & 0xFF000000) >>> 24 != 255), Graphics2D::setColor, Graphics2D::getColor);
+            graphics.push(new Color(color, (color & 0xFF000000) >>> 24 != 255));
             graphics.fill(rectangle);
             graphics.pop();
         }
 
         return Result.of(Optional.of(Rectangles.singleton(rectangle)));
     }
+
+    @Override
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        int x = (element.hasAttribute("x") ? Integer.decode(element.getAttribute("x")) : 0);
+        int y = (element.hasAttribute("y") ? Integer.decode(element.getAttribute("y")) : 0);
+        int width = Integer.decode(element.getAttribute("width"));
+        int height = Integer.decode(element.getAttribute("height"));
+
+        return Optional.of(new Rectangle2D.Double(x, y, width, height));
+    }
+
+    @Override
+    protected Rectangles getOpaqueLayerBounds(RenderableData card, RenderableData.XMLElement element) {
+        int color = element.hasAttribute("color")
+                ? element.getInteger("color") : 0;
+
+        Rectangle2D rectangle = this.getExpectedBounds(card, element).get();
+
+        if ((color & 0xFF000000) >>> 24 == 255 && !rectangle.isEmpty()) {
+            return Rectangles.singleton(rectangle);
+        } else {
+            return new Rectangles();
+        }
+    }
 }
@@ -3,6 +3,7 @@ package dev.hephaestus.proximity.templates.layers.renderers;
 import dev.hephaestus.proximity.util.*;
 import dev.hephaestus.proximity.xml.LayerRenderer;
 import dev.hephaestus.proximity.xml.RenderableData;
+import dev.hephaestus.proximity.xml.XMLUtil;
 import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
 import org.apache.batik.bridge.BridgeContext;
 import org.apache.batik.bridge.GVTBuilder;
@@ -18,10 +19,9 @@ import org.w3c.dom.svg.SVGSVGElement;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -33,9 +33,15 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SVGLayerRenderer extends LayerRenderer {
+    // Scaled sizes of each SVG that has been rendered, so that later layers using it have known bounds.
+    private static final Map<String, Size> SIZES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Transformer> TRANSFORMER = ThreadLocal.withInitial(SVGLayerRenderer::createTransformer);
+
     public SVGLayerRenderer(RenderableData data) {
         super(data);
     }
@@ -100,6 +106,8 @@ public class SVGLayerRenderer extends LayerRenderer {
                 s = (float) Math.min(vScale, hScale);
             }
 
+            SIZES.putIfAbsent(getSizeKey(card, element, file), Size.of(svgBounds, graphicsNode.getBounds(), s));
+
             return Result.of(Optional.ofNullable(new Job(
                     element.getId(),
                     file,
@@ -110,13 +118,66 @@ public class SVGLayerRenderer extends LayerRenderer {
                     s,
                     verticalAlignment,
                     horizontalAlignment
-            ).draw(graphics)));
+            ).draw(graphics, draw)));
         });
     }
 
+    @Override
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        String src = element.hasAttribute("src") ? element.getAttribute("src") : null;
+        String file = ParsingUtil.getFileLocation(element.getParentId(), element.getAttribute("id"), src) + ".svg";
+        Size size = SIZES.get(getSizeKey(card, element, file));
+
+        if (size == null) {
+            return Optional.empty();
+        }
+
+        int x = (element.hasAttribute("x") ? Integer.decode(element.getAttribute("x")) : 0);
+        int y = (element.hasAttribute("y") ? Integer.decode(element.getAttribute("y")) : 0);
+        ContentAlignment verticalAlignment = element.hasAttribute("vertical_alignment") ? ContentAlignment.valueOf(element.getAttribute("vertical_alignment").toUpperCase(Locale.ROOT)) : ContentAlignment.MIDDLE;
+        ContentAlignment horizontalAlignment = element.hasAttribute("horizontal_alignment") ? ContentAlignment.valueOf(element.getAttribute("horizontal_alignment").toUpperCase(Locale.ROOT)) : ContentAlignment.MIDDLE;
+
+        Rectangle bounds = Job.getBounds(x, y, size.width(), size.height(), verticalAlignment, horizontalAlignment);
+
+        return Optional.of(new Rectangle2D.Double(
+                bounds.x + size.painted().getX(),
+                bounds.y + size.painted().getY(),
+                size.painted().getWidth(),
+                size.painted().getHeight()
+        ));
+    }
+
+    /**
+     * The scaled size an SVG is aligned by, and the region it actually paints relative to its aligned position.
+     * Painting isn't clipped, so content outside of the view box can reach past the layout bounds.
+     */
+    private record Size(double width, double height, Rectangle2D painted) {
+        static Size of(Rectangle2D svgBounds, Rectangle2D nodeBounds, float scale) {
+            Rectangle2D painted = new Rectangle2D.Double(0, 0, svgBounds.getWidth() * scale, svgBounds.getHeight() * scale);
+
+            if (nodeBounds != null) {
+                painted.add(new Rectangle2D.Double(
+                        (nodeBounds.getX() - svgBounds.getX()) * scale,
+                        (nodeBounds.getY() - svgBounds.getY()) * scale,
+                        nodeBounds.getWidth() * scale,
+                        nodeBounds.getHeight() * scale
+                ));
+            }
+
+            return new Size(svgBounds.getWidth() * scale, svgBounds.getHeight() * scale, painted);
+        }
+    }
+
+    private static String getSizeKey(RenderableData card, RenderableData.XMLElement element, String file) {
+        String width = element.hasAttribute("width") ? element.getAttribute("width") : "";
+        String height = element.hasAttribute("height") ? element.getAttribute("height") : "";
+
+        return card.getTemplateName() + "/" + file + "@" + width + "x" + height;
+    }
+
     private Result<SVGDocument> load(RenderableData card, String src) {
         try {
-            DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            DocumentBuilder documentBuilder = XMLUtil.getDocumentBuilder();
             InputStream inputStream = card.getInputStream(src);
             Document document = documentBuilder.parse(inputStream);
             Element root = document.getDocumentElement();
@@ -165,7 +226,7 @@ public class SVGLayerRenderer extends LayerRenderer {
             String svgString = toString(document);
 
             return Result.of(factory.createSVGDocument(src, new StringReader(svgString)));
-        } catch (ParserConfigurationException | IOException | SAXException | DOMException e) {
+        } catch (IOException | SAXException | DOMException e) {
             return Result.error(ExceptionUtil.getErrorMessage(e));
         }
     }
@@ -199,6 +260,20 @@ public class SVGLayerRenderer extends LayerRenderer {
         }
     }
 
+    private static Transformer createTransformer() {
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+
+            return transformer;
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException("Can't create transformer", e);
+        }
+    }
+
     private static void copyStyle(Element from, Element to) {
         if (from.hasAttribute("style")) {
             to.setAttribute("style", from.getAttribute("style"));
@@ -208,14 +283,8 @@ public class SVGLayerRenderer extends LayerRenderer {
     private static String toString(Document doc) {
         try {
             StringWriter sw = new StringWriter();
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
 
-            transformer.transform(new DOMSource(doc), new StreamResult(sw));
+            TRANSFORMER.get().transform(new DOMSource(doc), new StreamResult(sw));
             return sw.toString();
         } catch (Exception ex) {
             throw new RuntimeException("Error converting to String", ex);
@@ -246,29 +315,39 @@ public class SVGLayerRenderer extends LayerRenderer {
         }
 
         public Rectangles draw(StatefulGraphics out) {
-            int x = this.x, y = this.y;
+            return this.draw(out, true);
+        }
 
-            switch (this.horizontalAlignment) {
-                case MIDDLE -> x -= (int) (this.svgBounds.getWidth() * this.scale * 0.5);
-                case END -> x -= (int) (this.svgBounds.getWidth() * this.scale);
-            }
+        public Rectangles draw(StatefulGraphics out, boolean draw) {
+            Rectangle bounds = getBounds(this.x, this.y, this.svgBounds.getWidth() * this.scale, this.svgBounds.getHeight() * this.scale, this.verticalAlignment, this.horizontalAlignment);
 
-            switch (this.verticalAlignment) {
-                case MIDDLE -> y -= (int) (this.svgBounds.getHeight() * this.scale * 0.5);
-                case END -> y -= (int) (this.svgBounds.getHeight() * this.scale);
+            if (draw) {
+                out.push((int) (bounds.x - this.svgBounds.getX() * this.scale), (int) (bounds.y - this.svgBounds.getY() * this.scale));
+                out.push(this.scale, this.scale);
+                out.push(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+                this.adjust(this.svg.getRoot());
+                this.svg.getRoot().setClip(null);
+                this.svg.getRoot().paint(out);
+
+                out.pop(3);
             }
 
-            out.push((int) (x - this.svgBounds.getX() * this.scale), (int) (y - this.svgBounds.getY() * this.scale));
-            out.push(this.scale, this.scale);
-            out.push(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            return Rectangles.singleton(bounds);
+        }
 
-            this.adjust(this.svg.getRoot());
-            this.svg.getRoot().setClip(null);
-            this.svg.getRoot().paint(out);
+        private static Rectangle getBounds(int x, int y, double width, double height, ContentAlignment verticalAlignment, ContentAlignment horizontalAlignment) {
+            switch (horizontalAlignment) {
+                case MIDDLE -> x -= (int) (width * 0.5);
+                case END -> x -= (int) width;
+            }
 
-            out.pop(3);
+            switch (verticalAlignment) {
+                case MIDDLE -> y -= (int) (height * 0.5);
+                case END -> y -= (int) height;
+            }
 
-            return Rectangles.singleton(new Rectangle(x, y, (int) (this.svgBounds.getWidth() * this.scale), (int) (this.svgBounds.getHeight() * this.scale)));
+            return new Rectangle(x, y, (int) width, (int) height);
         }
 
         private void adjust(Object object) {
@@ -5,7 +5,7 @@ import dev.hephaestus.proximity.api.json.JsonElement;
 import dev.hephaestus.proximity.api.json.JsonPrimitive;
 import dev.hephaestus.proximity.api.tasks.TextFunction;
 import dev.hephaestus.proximity.text.Style;
-import dev.hephaestus.proximity.text.Symbol;
+import dev.hephaestus.proximity.text.SymbolMatcher;
 import dev.hephaestus.proximity.text.TextAlignment;
 import dev.hephaestus.proximity.text.TextComponent;
 import dev.hephaestus.proximity.util.*;
@@ -15,6 +15,7 @@ import dev.hephaestus.proximity.xml.RenderableData;
 
 import java.awt.*;
 import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
 import java.awt.font.TextAttribute;
 import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
@@ -45,7 +46,10 @@ public class TextLayerRenderer extends LayerRenderer {
                 card.getStyle(element.getAttribute("style"))
         );
 
-        Result<List<List<TextComponent>>> text = applyCapitalization(parseText(card, style, value), style.capitalization(), style.size());
+        // Parsing runs text functions and symbol replacement, and only depends on the card, the raw value and the
+        // style, so it's done once per card rather than on every measuring pass. Scaling happens later, in the job.
+        Result<List<List<TextComponent>>> text = card.getDerived(element, new TextKey(value, style), () ->
+                coalesce(applyCapitalization(parseText(card, style, value), style.capitalization(), style.size()), style));
 
         if (text.isError()) {
             return text.unwrap();
@@ -79,6 +83,29 @@ public class TextLayerRenderer extends LayerRenderer {
         return true;
     }
 
+    @Override
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        if (!element.hasAttribute("width") || !element.hasAttribute("height")) {
+            return Optional.empty();
+        }
+
+        int x = (element.hasAttribute("x") ? Integer.decode(element.getAttribute("x")) : 0);
+        int y = (element.hasAttribute("y") ? Integer.decode(element.getAttribute("y")) : 0);
+        int width = Integer.decode(element.getAttribute("width"));
+        int height = Integer.decode(element.getAttribute("height"));
+        Style style = element.getProperty(LayerProperty.STYLE, Style.EMPTY).merge(
+                card.getStyle(element.getAttribute("style"))
+        );
+
+        // Glyphs, outlines and shadows aren't strictly kept inside the text box, so the margin is generous. It only
+        // needs to be tight enough to skip text that has been parked well outside the card.
+        double margin = Math.max(width, height)
+                + (style.outline() == null ? 0 : style.outline().weight())
+                + (style.shadow() == null ? 0 : Math.max(Math.abs(style.shadow().dX()), Math.abs(style.shadow().dY())));
+
+        return Optional.of(new Rectangle2D.Double(x - margin, y - margin, width + margin * 2, height + margin * 2));
+    }
+
     private Result<List<List<TextComponent>>> parseText(RenderableData card, Style baseStyle, String string) {
         Matcher matcher = RenderableData.SUBSTITUTE.matcher(string);
 
@@ -131,50 +158,18 @@ public class TextLayerRenderer extends LayerRenderer {
             result.add(Collections.singletonList(new TextComponent.Literal(baseStyle, priors)));
         }
 
-        if (!result.isEmpty()) {
-            StringBuilder text = new StringBuilder();
-
-            for (var list : result) {
-                for (var components : list) {
-                    text.append(components.string());
-                }
-            }
-
-            List<Symbol> symbols = card.getApplicable(text.toString());
-
-            if (symbols.size() > 0) {
-                List<List<TextComponent>> preSymbolResult = result;
-                result = new ArrayList<>(preSymbolResult.size());
+        SymbolMatcher symbols = card.getSymbolMatcher();
 
-                for (List<TextComponent> components : preSymbolResult) {
-                    List<TextComponent> list = new ArrayList<>(components.size());
-                    result.add(list);
+        if (!result.isEmpty() && !symbols.isEmpty()) {
+            List<List<TextComponent>> preSymbolResult = result;
+            result = new ArrayList<>(preSymbolResult.size());
 
-                    for (TextComponent component : components) {
-                        string = component.string();
-                        int anchor = 0;
+            for (List<TextComponent> components : preSymbolResult) {
+                List<TextComponent> list = new ArrayList<>(components.size());
+                result.add(list);
 
-                        for (int i = 0; i < string.length(); ++i) {
-                            String s = string.substring(i);
-
-                            for (Symbol symbol : symbols) {
-                                if (s.startsWith(symbol.getRepresentation())) {
-                                    if (i > anchor) {
-                                        list.add(new TextComponent.Literal(component.style(), string.substring(anchor, i)));
-                                    }
-
-                                    list.addAll(symbol.getGlyphs(component.style()));
-
-                                    i += symbol.getRepresentation().length() - 1;
-                                    anchor = i + 1;
-                                }
-                            }
-                        }
-
-                        if (anchor < string.length()) {
-                            list.add(new TextComponent.Literal(component.style(), string.substring(anchor)));
-                        }
-                    }
+                for (TextComponent component : components) {
+                    symbols.replace(component, list);
                 }
             }
         }
@@ -205,10 +200,20 @@ public class TextLayerRenderer extends LayerRenderer {
                                 ? new Style.Builder().size((int) (fontSize * 0.75F)).build()
                                 : component.style().size((int) (fontSize * 0.75F));
 
-                        for (char c : component.string().toCharArray()) {
-                            boolean bl = Character.isUpperCase(c);
+                        // Consecutive characters of the same case share a run instead of becoming a component each.
+                        String string = component.string();
+                        StringBuilder run = new StringBuilder();
 
-                            level.add(new TextComponent.Literal(bl ? uppercase : lowercase, Character.toUpperCase(c)));
+                        for (int i = 0; i < string.length(); ) {
+                            boolean bl = Character.isUpperCase(string.charAt(i));
+
+                            run.setLength(0);
+
+                            while (i < string.length() && Character.isUpperCase(string.charAt(i)) == bl) {
+                                run.append(Character.toUpperCase(string.charAt(i++)));
+                            }
+
+                            level.add(new TextComponent.Literal(bl ? uppercase : lowercase, run.toString()));
                         }
                     }
                 }
@@ -220,6 +225,58 @@ public class TextLayerRenderer extends LayerRenderer {
         return Result.of(result);
     }
 
+    /**
+     * Merges adjacent components that share a style, so each run is shaped and drawn once. Components containing line
+     * breaks are left alone, since those are handled as a whole when laying text out. So are components with kerning,
+     * since separately drawn components are spaced apart by it.
+     */
+    private static Result<List<List<TextComponent>>> coalesce(Result<List<List<TextComponent>>> text, Style layer) {
+        if (text.isError()) return text;
+
+        List<List<TextComponent>> result = new ArrayList<>(text.get().size());
+
+        for (List<TextComponent> list : text.get()) {
+            List<TextComponent> level = new ArrayList<>(list.size());
+            StringBuilder run = new StringBuilder();
+            TextComponent previous = null;
+
+            for (TextComponent component : list) {
+                if (previous != null && mergeable(previous, component, layer)) {
+                    if (run.length() == 0) run.append(previous.string());
+                    run.append(component.string());
+                    continue;
+                }
+
+                if (previous != null) {
+                    level.add(run.length() == 0 ? previous : new TextComponent.Literal(previous.style(), run.toString()));
+                    run.setLength(0);
+                }
+
+                previous = component;
+            }
+
+            if (previous != null) {
+                level.add(run.length() == 0 ? previous : new TextComponent.Literal(previous.style(), run.toString()));
+            }
+
+            result.add(level);
+        }
+
+        return Result.of(result);
+    }
+
+    private static boolean mergeable(TextComponent left, TextComponent right, Style layer) {
+        Float kerning = left.style() == null || left.style().kerning() == null ? layer.kerning() : left.style().kerning();
+
+        return Objects.equals(left.style(), right.style())
+                && (kerning == null || kerning == 0)
+                && !left.string().isEmpty() && !right.string().isEmpty()
+                && left.string().indexOf('\n') < 0 && right.string().indexOf('\n') < 0;
+    }
+
+    private record TextKey(String value, Style style) {
+    }
+
     public static class Job {
         private final int x, y;
         protected final Rectangle2D bounds;
@@ -290,7 +347,7 @@ public class TextLayerRenderer extends LayerRenderer {
                             font = font.deriveFont(attributes);
                         }
 
-                        graphics.push(font, Graphics2D::setFont, Graphics2D::getFont);
+                        graphics.push(font);
                         TextLayout textLayout = new TextLayout(c.string(), graphics.getFont(), graphics.getFontRenderContext());
                         x -= textLayout.getAdvance();
                         graphics.pop();
@@ -322,7 +379,7 @@ public class TextLayerRenderer extends LayerRenderer {
                             font = font.deriveFont(attributes);
                         }
 
-                        graphics.push(font, Graphics2D::setFont, Graphics2D::getFont);
+                        graphics.push(font);
                         TextLayout textLayout = new TextLayout(c.string(), graphics.getFont(), graphics.getFontRenderContext());
                         width += textLayout.getAdvance();
                         graphics.pop();
@@ -346,8 +403,8 @@ public class TextLayerRenderer extends LayerRenderer {
 
             if (size <= 0.001) {
                 return new Pair<>(new Rectangle2D.Double(
-                        (int) graphics.getTransform().getTranslateX() + x,
-                        (int) (graphics.getTransform().getTranslateY()),
+                        (int) graphics.getTranslateX() + x,
+                        (int) (graphics.getTranslateY()),
                         0,
                       0
                 ), 0);
@@ -378,12 +435,16 @@ public class TextLayerRenderer extends LayerRenderer {
 
             Outline outline = style.outline() == null ? this.style.outline() : style.outline();
 
-            graphics.push(textColor, Graphics2D::setColor, Graphics2D::getColor);
-            graphics.push(font, Graphics2D::setFont, Graphics2D::getFont);
+            graphics.push(textColor);
+            graphics.push(font);
             // Get shape color the glyphs being drawn
             FontRenderContext fontRenderContext = graphics.getFontRenderContext();
             TextLayout textLayout = new TextLayout(text.string(), graphics.getFont(), fontRenderContext);
             Shape shape = textLayout.getOutline(null);
+            GlyphVector glyphs = draw && Values.GLYPH_ATLAS.exists(this.card) && Values.GLYPH_ATLAS.get(this.card)
+                    && GlyphAtlas.supports(graphics, graphics.getFont(), text.string())
+                    ? GlyphAtlas.layout(graphics, graphics.getFont(), text.string())
+                    : null;
 
             graphics.push(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
@@ -391,15 +452,17 @@ public class TextLayerRenderer extends LayerRenderer {
 
             // Stroke needs to apply to shadow as well, so we have to set it before shadow drawing
             if (outline != null && outline.weight() > 0) {
-                graphics.push(new BasicStroke(outline.weight()), Graphics2D::setStroke, Graphics2D::getStroke);
+                graphics.push(new BasicStroke(outline.weight()));
             }
 
             // Actually
             if (style.shadow() != null) {
                 graphics.push(style.shadow().dX(), style.shadow().dY());
-                graphics.push(DrawingUtil.getColor(style.shadow().color()), Graphics2D::setColor, Graphics2D::getColor);
+                graphics.push(DrawingUtil.getColor(style.shadow().color()));
 
-                if (draw) {
+                if (glyphs != null) {
+                    GlyphAtlas.draw(graphics, glyphs, graphics.getColor(), 0);
+                } else if (draw) {
                     graphics.fill(shape);
                 }
 
@@ -408,9 +471,11 @@ public class TextLayerRenderer extends LayerRenderer {
 
             if (outline != null && outline.weight() > 0) {
                 // Draw outline
-                graphics.push(DrawingUtil.getColor(outline.color()), Graphics2D::setColor, Graphics2D::getColor);
+                graphics.push(DrawingUtil.getColor(outline.color()));
 
-                if (draw) {
+                if (glyphs != null) {
+                    GlyphAtlas.draw(graphics, glyphs, graphics.getColor(), outline.weight());
+                } else if (draw) {
                     graphics.draw(shape);
                 }
 
@@ -418,15 +483,17 @@ public class TextLayerRenderer extends LayerRenderer {
             }
 
             // Draw original shape
-            if (draw) {
+            if (glyphs != null) {
+                GlyphAtlas.draw(graphics, glyphs, graphics.getColor(), 0);
+            } else if (draw) {
                 graphics.fill(shape);
             }
 
             graphics.pop("TextComponent");
 
             return new Pair<>(new Rectangle(
-                    (int) graphics.getTransform().getTranslateX() + x,
-                    (int) (graphics.getTransform().getTranslateY()) + shape.getBounds().y,
+                    (int) graphics.getTranslateX() + x,
+                    (int) (graphics.getTranslateY()) + shape.getBounds().y,
                     (int) textLayout.getAdvance(),
                     shape.getBounds().height
             ), (int) textLayout.getAscent());
@@ -487,8 +554,8 @@ public class TextLayerRenderer extends LayerRenderer {
             }
 
             if (draw && this.wrap != null && Values.DEBUG.get(this.card)) {
-                graphics.push(new BasicStroke(5), Graphics2D::setStroke, Graphics2D::getStroke);
-                graphics.push(DrawingUtil.getColor(0xF0F0F0), Graphics2D::setColor, Graphics2D::getColor);
+                graphics.push(new BasicStroke(5));
+                graphics.push(DrawingUtil.getColor(0xF0F0F0));
 
                 for (Rectangle2D rectangle : this.wrap) {
                     graphics.drawRect((int) rectangle.getX(), (int) rectangle.getY(), (int) rectangle.getWidth(), (int) rectangle.getHeight());
@@ -510,6 +577,7 @@ public class TextLayerRenderer extends LayerRenderer {
 
                 List<TextComponent> lastTextComponent = null;
                 Deque<List<TextComponent>> deque = new ArrayDeque<>();
+                LineSpans spans = wrap == null ? null : new LineSpans(wrap);
 
                 for (List<TextComponent> text : this.text) {
                     deque.add(new ArrayList<>(text));
@@ -583,13 +651,14 @@ public class TextLayerRenderer extends LayerRenderer {
                         if (this.bounds == null) {
                             bounds.add(rectangle);
 
-                            if (bounds.intersects(wrap)) {
+                            // Everything added before was already checked, so only the new rectangle can intersect.
+                            if (wrap.intersects(rectangle)) {
                                 bounds.clear();
                                 scale.set(scale.get() - 1);
                                 graphics.pop("Loop");
                                 continue loop;
                             }
-                        } else if (wrap.intersects(rectangle)) {
+                        } else if (!spans.fits(rectangle)) {
                             x = minX;
                             lastLineBroken = true;
                             lastLineWidth = 0;
@@ -622,8 +691,8 @@ public class TextLayerRenderer extends LayerRenderer {
             graphics.pop("Text");
 
             if (draw && !bounds.isEmpty() && Values.DEBUG.get(this.card)) {
-                graphics.push(new BasicStroke(5), Graphics2D::setStroke, Graphics2D::getStroke);
-                graphics.push(DrawingUtil.getColor(0xFF0000FF), Graphics2D::setColor, Graphics2D::getColor);
+                graphics.push(new BasicStroke(5));
+                graphics.push(DrawingUtil.getColor(0xFF0000FF));
 
                 for (Rectangle2D rectangle : bounds) {
                     graphics.drawRect((int) rectangle.getX(), (int) rectangle.getY(), (int) rectangle.getWidth(), (int) rectangle.getHeight());
@@ -633,8 +702,8 @@ public class TextLayerRenderer extends LayerRenderer {
             }
 
             if (draw && wrap != null && Values.DEBUG.get(this.card)) {
-                graphics.push(new BasicStroke(5), Graphics2D::setStroke, Graphics2D::getStroke);
-                graphics.push(DrawingUtil.getColor(0xFFFF00FF), Graphics2D::setColor, Graphics2D::getColor);
+                graphics.push(new BasicStroke(5));
+                graphics.push(DrawingUtil.getColor(0xFFFF00FF));
 
                 for (Rectangle2D rectangle : wrap) {
                     graphics.drawRect((int) rectangle.getX(), (int) rectangle.getY(), (int) rectangle.getWidth(), (int) rectangle.getHeight());
@@ -661,5 +730,42 @@ public class TextLayerRenderer extends LayerRenderer {
 
         private record Result(Rectangles bounds, int firstRowHeight, int lastLineWidth, boolean lastLineBroken) {
         }
+
+        /**
+         * The space a wrap leaves free on the line being laid out. It's looked up in one query per line, and again only
+         * when a component on the line reaches higher or lower than the ones before it.
+         */
+        private static final class LineSpans {
+            private final Rectangles wrap;
+            private List<Rectangles.Span> spans;
+            private double top, bottom;
+
+            private LineSpans(Rectangles wrap) {
+                this.wrap = wrap;
+            }
+
+            /**
+             * Whether a component fits in one of the free spans, which is the same as it not intersecting the wrap.
+             */
+            private boolean fits(Rectangle2D rectangle) {
+                if (rectangle.isEmpty()) {
+                    return !this.wrap.intersects(rectangle);
+                }
+
+                if (this.spans == null || rectangle.getMinY() != this.top || rectangle.getMaxY() != this.bottom) {
+                    this.spans = this.wrap.getFreeSpans(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, rectangle.getMinY(), rectangle.getMaxY());
+                    this.top = rectangle.getMinY();
+                    this.bottom = rectangle.getMaxY();
+                }
+
+                for (Rectangles.Span span : this.spans) {
+                    if (span.start() <= rectangle.getMinX() && rectangle.getMaxX() <= span.end()) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+        }
     }
 }
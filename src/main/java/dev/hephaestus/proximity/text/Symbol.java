@@ -17,8 +17,8 @@ public final class Symbol {
         this.predicate = new CardPredicate.And(predicates);
     }
 
-    public boolean anyMatches(RenderableData card, String text) {
-        return this.predicate.test(card).orElse(false) && text.contains(this.representation);
+    public boolean isApplicable(RenderableData card) {
+        return this.predicate.test(card).orElse(false);
     }
 
     public String getRepresentation() {
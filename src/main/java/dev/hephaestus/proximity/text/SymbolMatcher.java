@@ -0,0 +1,201 @@
+package dev.hephaestus.proximity.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds symbol representations in text with an Aho-Corasick automaton, so a string is scanned once no matter how many
+ * symbols a template declares. Where several representations start at the same position, the symbol that was declared
+ * first wins; once a symbol has been replaced, scanning resumes after it.
+ */
+public final class SymbolMatcher {
+    public static final SymbolMatcher EMPTY = new SymbolMatcher(List.of());
+
+    private final Symbol[] symbols;
+    // Each state's transitions, as its characters in ascending order and the states they lead to.
+    private final char[][] keys;
+    private final int[][] targets;
+    private final int[] failures;
+    // For each state, the symbols whose representation ends there, including those reached through failure links.
+    private final int[][] outputs;
+
+    public SymbolMatcher(List<Symbol> symbols) {
+        this.symbols = symbols.toArray(new Symbol[0]);
+
+        List<Map<Character, Integer>> transitions = new ArrayList<>();
+        transitions.add(new HashMap<>());
+
+        List<int[]> outputs = new ArrayList<>();
+        outputs.add(new int[0]);
+
+        for (int i = 0; i < this.symbols.length; ++i) {
+            String representation = this.symbols[i].getRepresentation();
+
+            if (representation == null || representation.isEmpty()) continue;
+
+            int state = 0;
+
+            for (int j = 0; j < representation.length(); ++j) {
+                Integer next = transitions.get(state).get(representation.charAt(j));
+
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.get(state).put(representation.charAt(j), next);
+                    transitions.add(new HashMap<>());
+                    outputs.add(new int[0]);
+                }
+
+                state = next;
+            }
+
+            outputs.set(state, append(outputs.get(state), i));
+        }
+
+        this.outputs = outputs.toArray(new int[0][]);
+        this.failures = new int[transitions.size()];
+        this.keys = new char[transitions.size()][];
+        this.targets = new int[transitions.size()][];
+
+        for (int state = 0; state < transitions.size(); ++state) {
+            Map<Character, Integer> map = transitions.get(state);
+            char[] keys = new char[map.size()];
+            int k = 0;
+
+            for (char c : map.keySet()) {
+                keys[k++] = c;
+            }
+
+            Arrays.sort(keys);
+            this.keys[state] = keys;
+            this.targets[state] = new int[keys.length];
+
+            for (int j = 0; j < keys.length; ++j) {
+                this.targets[state][j] = map.get(keys[j]);
+            }
+        }
+
+        // Failure links are filled in breadth first, so a state's link is always known before its children's.
+        int[] queue = new int[transitions.size()];
+        int head = 0, tail = 0;
+
+        for (int child : transitions.get(0).values()) {
+            queue[tail++] = child;
+        }
+
+        while (head < tail) {
+            int state = queue[head++];
+
+            for (Map.Entry<Character, Integer> entry : transitions.get(state).entrySet()) {
+                int child = entry.getValue();
+                int failure = this.failures[state];
+
+                while (failure != 0 && !transitions.get(failure).containsKey(entry.getKey())) {
+                    failure = this.failures[failure];
+                }
+
+                Integer target = transitions.get(failure).get(entry.getKey());
+
+                this.failures[child] = target == null || target == child ? 0 : target;
+                this.outputs[child] = merge(this.outputs[child], this.outputs[this.failures[child]]);
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.symbols.length == 0;
+    }
+
+    /**
+     * Appends the given component to the list, with any symbols it contains replaced by their glyphs.
+     */
+    public void replace(TextComponent component, List<TextComponent> out) {
+        String string = component.string();
+        int[] starts = this.find(string);
+
+        if (starts == null) {
+            out.add(component);
+            return;
+        }
+
+        int anchor = 0;
+
+        for (int i = 0; i < string.length(); ++i) {
+            if (starts[i] < 0) continue;
+
+            Symbol symbol = this.symbols[starts[i]];
+
+            if (i > anchor) {
+                out.add(new TextComponent.Literal(component.style(), string.substring(anchor, i)));
+            }
+
+            out.addAll(symbol.getGlyphs(component.style()));
+
+            i += symbol.getRepresentation().length() - 1;
+            anchor = i + 1;
+        }
+
+        if (anchor < string.length()) {
+            out.add(new TextComponent.Literal(component.style(), string.substring(anchor)));
+        }
+    }
+
+    /**
+     * Returns, for each position in the string, the index of the first declared symbol that starts there or -1, or null
+     * if the string contains no symbols at all.
+     */
+    private int[] find(String string) {
+        int[] starts = null;
+        int state = 0;
+
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            int next;
+
+            while ((next = this.next(state, c)) < 0 && state != 0) {
+                state = this.failures[state];
+            }
+
+            state = Math.max(next, 0);
+
+            for (int symbol : this.outputs[state]) {
+                int start = i - this.symbols[symbol].getRepresentation().length() + 1;
+
+                if (starts == null) {
+                    starts = new int[string.length()];
+                    Arrays.fill(starts, -1);
+                }
+
+                if (starts[start] < 0 || symbol < starts[start]) {
+                    starts[start] = symbol;
+                }
+            }
+        }
+
+        return starts;
+    }
+
+    private int next(int state, char c) {
+        int index = Arrays.binarySearch(this.keys[state], c);
+
+        return index < 0 ? -1 : this.targets[state][index];
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    private static int[] merge(int[] left, int[] right) {
+        if (right.length == 0) return left;
+        if (left.length == 0) return right;
+
+        int[] result = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, result, left.length, right.length);
+        return result;
+    }
+}
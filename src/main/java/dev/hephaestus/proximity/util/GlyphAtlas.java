@@ -0,0 +1,204 @@
+package dev.hephaestus.proximity.util;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.text.Bidi;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Draws text from cached glyph rasters instead of filling its outline every time. The same names, type lines and
+ * keywords are drawn across thousands of cards in a handful of fonts and sizes, so most glyphs only ever get
+ * rasterized once.
+ *
+ * <p>Coverage masks are cached per font, glyph, subpixel offset and stroke weight, and coloured copies of the last few
+ * colours each mask was drawn in are cached alongside it. The atlas is emptied once masks and copies together take up
+ * more than {@link #MAX_BYTES}. Shadows are the same masks drawn at an offset in another colour. Text that is transformed by
+ * anything other than a translation, very large or bidirectional is left to the caller to fill as a shape.</p>
+ */
+public final class GlyphAtlas {
+    private static final int SUBPIXELS = 4;
+    private static final float MAX_SIZE = 128;
+    private static final long MAX_BYTES = 64L << 20;
+    private static final int MAX_TINTS = 4;
+    private static final FontRenderContext CONTEXT = new FontRenderContext(null, true, true);
+    // Emptied by swapping in a new generation, so its masks and the count of their bytes are always replaced together.
+    private static volatile Generation current = new Generation();
+
+    private GlyphAtlas() {
+    }
+
+    public static boolean supports(StatefulGraphics graphics, Font font, String text) {
+        return font.getSize2D() <= MAX_SIZE
+                && (graphics.getTransformType() & ~AffineTransform.TYPE_TRANSLATION) == 0
+                && !Bidi.requiresBidi(text.toCharArray(), 0, text.length());
+    }
+
+    public static GlyphVector layout(StatefulGraphics graphics, Font font, String text) {
+        return font.layoutGlyphVector(graphics.getFontRenderContext(), text.toCharArray(), 0, text.length(), Font.LAYOUT_LEFT_TO_RIGHT);
+    }
+
+    /**
+     * Draws the glyphs at the current translation, filled if the stroke weight is zero and outlined otherwise.
+     */
+    public static void draw(StatefulGraphics graphics, GlyphVector glyphs, Color color, float stroke) {
+        Generation generation = generation();
+        Font font = glyphs.getFont();
+        double originX = graphics.getTranslateX();
+        double originY = graphics.getTranslateY();
+
+        // Glyphs are placed in device space, so they're drawn with whole pixel offsets and stay on the fast blit path.
+        // The transform is only ever a translation here, so undoing it and redoing it afterwards is exact.
+        graphics.translate(-originX, -originY);
+
+        try {
+            for (int i = 0; i < glyphs.getNumGlyphs(); ++i) {
+                Point2D position = glyphs.getGlyphPosition(i);
+                double x = originX + position.getX();
+                double y = originY + position.getY();
+                int pixelX = (int) Math.floor(x);
+                int pixelY = (int) Math.floor(y);
+                int subpixelX = (int) ((x - pixelX) * SUBPIXELS);
+                int subpixelY = (int) ((y - pixelY) * SUBPIXELS);
+
+                Mask mask = generation.masks.computeIfAbsent(new Key(font, glyphs.getGlyphCode(i), subpixelX, subpixelY, stroke), generation::rasterize);
+
+                if (mask.coverage != null) {
+                    graphics.drawImage(mask.tint(color), pixelX + mask.x, pixelY + mask.y, null);
+                }
+            }
+        } finally {
+            graphics.translate(originX, originY);
+        }
+    }
+
+    private static Generation generation() {
+        Generation generation = current;
+
+        if (generation.bytes.get() > MAX_BYTES) {
+            synchronized (GlyphAtlas.class) {
+                if (current == generation) {
+                    current = new Generation();
+                }
+
+                generation = current;
+            }
+        }
+
+        return generation;
+    }
+
+    private static long bytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    private record Key(Font font, int glyph, int subpixelX, int subpixelY, float stroke) {
+    }
+
+    private static final class Generation {
+        private final Map<Key, Mask> masks = new ConcurrentHashMap<>();
+        // Bytes held by the masks and their coloured copies.
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Mask rasterize(Key key) {
+            Shape shape = key.font.createGlyphVector(CONTEXT, new int[] { key.glyph }).getGlyphOutline(0);
+
+            if (key.stroke > 0) {
+                shape = new BasicStroke(key.stroke).createStrokedShape(shape);
+            }
+
+            Rectangle bounds = shape.getBounds();
+
+            if (bounds.isEmpty()) {
+                return new Mask(this.bytes, null, 0, 0);
+            }
+
+            // One pixel of padding on each side leaves room for antialiasing and the subpixel offset.
+            BufferedImage coverage = ImageUtil.createCanvas(bounds.width + 2, bounds.height + 2);
+            Graphics2D graphics = coverage.createGraphics();
+
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setColor(Color.WHITE);
+            graphics.translate(1 - bounds.x + (double) key.subpixelX / SUBPIXELS, 1 - bounds.y + (double) key.subpixelY / SUBPIXELS);
+            graphics.fill(shape);
+            graphics.dispose();
+            this.bytes.addAndGet(bytes(coverage));
+
+            return new Mask(this.bytes, coverage, bounds.x - 1, bounds.y - 1);
+        }
+    }
+
+    private static final class Mask {
+        private final AtomicLong bytes;
+        private final BufferedImage coverage;
+        private final int x, y;
+        // Least recently used colours are dropped first. Guarded by itself.
+        private final Map<Integer, BufferedImage> tinted = new LinkedHashMap<>(MAX_TINTS * 2, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+                if (this.size() > MAX_TINTS) {
+                    Mask.this.bytes.addAndGet(-bytes(eldest.getValue()));
+                    return true;
+                }
+
+                return false;
+            }
+        };
+
+        private Mask(AtomicLong bytes, BufferedImage coverage, int x, int y) {
+            this.bytes = bytes;
+            this.coverage = coverage;
+            this.x = x;
+            this.y = y;
+        }
+
+        private BufferedImage tint(Color color) {
+            synchronized (this.tinted) {
+                BufferedImage tinted = this.tinted.get(color.getRGB());
+
+                if (tinted == null) {
+                    tinted = this.tint(color.getRGB());
+                    this.bytes.addAndGet(bytes(tinted));
+                    this.tinted.put(color.getRGB(), tinted);
+                }
+
+                return tinted;
+            }
+        }
+
+        private BufferedImage tint(int argb) {
+            BufferedImage result = ImageUtil.createCanvas(this.coverage.getWidth(), this.coverage.getHeight());
+            IntRaster in = IntRaster.of(this.coverage);
+            IntRaster out = IntRaster.of(result);
+            int alpha = argb >>> 24;
+            int r = (argb >> 16) & 0xFF, g = (argb >> 8) & 0xFF, b = argb & 0xFF;
+
+            for (int y = 0; y < in.getHeight(); ++y) {
+                int inOffset = in.getRowOffset(y);
+                int outOffset = out.getRowOffset(y);
+
+                for (int x = 0; x < in.getWidth(); ++x) {
+                    int a = (in.getPixels()[inOffset + x] >>> 24) * alpha / 255;
+
+                    out.getPixels()[outOffset + x] = a << 24 | (r * a / 255) << 16 | (g * a / 255) << 8 | b * a / 255;
+                }
+            }
+
+            out.commit();
+
+            return result;
+        }
+    }
+}
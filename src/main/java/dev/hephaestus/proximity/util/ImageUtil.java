@@ -0,0 +1,159 @@
+package dev.hephaestus.proximity.util;
+
+import dev.hephaestus.proximity.effects.PixelKernels;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Everything that gets drawn during a render is kept as {@code TYPE_INT_ARGB_PRE}, which is what Java2D's fastest
+ * compositing loops expect. Assets are converted once when they're loaded, and canvases are only converted back to
+ * straight alpha when they're encoded.
+ */
+public final class ImageUtil {
+    static {
+        // ImageIO otherwise buffers every stream it reads or writes through a temporary file.
+        ImageIO.setUseCache(false);
+    }
+
+    private ImageUtil() {
+    }
+
+    public static BufferedImage createCanvas(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    /**
+     * Decodes an image and converts it to {@code TYPE_INT_ARGB_PRE}, returning null if no decoder recognizes it. Safe to
+     * call from any number of threads at once.
+     */
+    public static BufferedImage read(InputStream input) throws IOException {
+        byte[] bytes;
+
+        try (input) {
+            bytes = input.readAllBytes();
+        }
+
+        if (PngDecoder.isPng(bytes)) {
+            BufferedImage image = PngDecoder.decode(bytes);
+
+            if (image != null) {
+                return image;
+            }
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+
+        return image == null ? null : toPremultiplied(image);
+    }
+
+    public static BufferedImage toPremultiplied(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB_PRE) {
+            return image;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = createCanvas(width, height);
+
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            IntRaster in = IntRaster.of(image);
+            IntRaster out = IntRaster.of(result);
+
+            ParallelUtil.forEachRows(height, (from, to) -> {
+                for (int y = from; y < to; ++y) {
+                    System.arraycopy(in.getPixels(), in.getRowOffset(y), out.getPixels(), out.getRowOffset(y), width);
+                    PixelKernels.INSTANCE.premultiply(out.getPixels(), out.getRowOffset(y), width);
+                }
+            });
+        } else {
+            Graphics2D graphics = result.createGraphics();
+
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a straight-alpha {@code TYPE_INT_ARGB} copy of a premultiplied image, or the image itself if it isn't
+     * premultiplied.
+     */
+    public static BufferedImage toStraight(BufferedImage image) {
+        if (!image.isAlphaPremultiplied()) {
+            return image;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        IntRaster in = IntRaster.of(image);
+        IntRaster out = IntRaster.of(result);
+
+        ParallelUtil.forEachRows(height, (from, to) -> {
+            for (int y = from; y < to; ++y) {
+                System.arraycopy(in.getPixels(), in.getRowOffset(y), out.getPixels(), out.getRowOffset(y), width);
+
+                if (in.isPremultiplied()) {
+                    PixelKernels.INSTANCE.unpremultiply(out.getPixels(), out.getRowOffset(y), width);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Finds the largest axis-aligned rectangle of fully opaque pixels in an image, or null if it has none.
+     */
+    public static Rectangle findOpaqueRectangle(BufferedImage image) {
+        IntRaster raster = IntRaster.of(image);
+        int[] pixels = raster.getPixels();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+
+        // Each row is treated as the base of a histogram of opaque run lengths above it, and the largest rectangle
+        // under that histogram is found with a monotonic stack.
+        int[] heights = new int[width];
+        int[] stack = new int[width + 1];
+        Rectangle best = null;
+        long bestArea = 0;
+
+        for (int y = 0; y < height; ++y) {
+            int offset = raster.getRowOffset(y);
+
+            for (int x = 0; x < width; ++x) {
+                heights[x] = pixels[offset + x] >>> 24 == 0xFF ? heights[x] + 1 : 0;
+            }
+
+            int top = 0;
+
+            for (int x = 0; x <= width; ++x) {
+                int h = x == width ? 0 : heights[x];
+
+                while (top > 0 && heights[stack[top - 1]] >= h) {
+                    int barHeight = heights[stack[--top]];
+                    int left = top == 0 ? 0 : stack[top - 1] + 1;
+                    long area = (long) barHeight * (x - left);
+
+                    if (area > bestArea) {
+                        bestArea = area;
+                        best = new Rectangle(left, y - barHeight + 1, x - left, barHeight);
+                    }
+                }
+
+                stack[top++] = x;
+            }
+        }
+
+        return best;
+    }
+}
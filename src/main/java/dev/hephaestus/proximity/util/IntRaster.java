@@ -0,0 +1,94 @@
+package dev.hephaestus.proximity.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Packed ARGB pixels of an image as a plain {@code int[]}.
+ *
+ * <p>For {@code TYPE_INT_ARGB} and {@code TYPE_INT_ARGB_PRE} images the array is the image's own backing buffer,
+ * so changes are made in place and {@link #commit()} does nothing. Any other image is copied out with
+ * {@link BufferedImage#getRGB} and must be committed to write changes back. Pixel {@code (x, y)} is at
+ * {@code getOffset(x, y)}; rows are {@link #getStride()} ints apart, which may be more than the width.</p>
+ */
+public final class IntRaster {
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int origin, stride;
+    private final boolean direct, premultiplied;
+
+    private IntRaster(BufferedImage image, int[] pixels, int origin, int stride, boolean direct, boolean premultiplied) {
+        this.image = image;
+        this.pixels = pixels;
+        this.origin = origin;
+        this.stride = stride;
+        this.direct = direct;
+        this.premultiplied = premultiplied;
+    }
+
+    public static IntRaster of(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+
+        if ((image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_ARGB_PRE)
+                && raster.getDataBuffer() instanceof DataBufferInt buffer
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel) {
+            int stride = sampleModel.getScanlineStride();
+            int origin = buffer.getOffset()
+                    - raster.getSampleModelTranslateY() * stride
+                    - raster.getSampleModelTranslateX();
+
+            return new IntRaster(image, buffer.getData(), origin, stride, true, image.isAlphaPremultiplied());
+        } else {
+            int width = image.getWidth();
+            int[] pixels = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+
+            return new IntRaster(image, pixels, 0, width, false, false);
+        }
+    }
+
+    public int[] getPixels() {
+        return this.pixels;
+    }
+
+    public int getOffset(int x, int y) {
+        return this.origin + y * this.stride + x;
+    }
+
+    public int getRowOffset(int y) {
+        return this.origin + y * this.stride;
+    }
+
+    public int getStride() {
+        return this.stride;
+    }
+
+    public int getWidth() {
+        return this.image.getWidth();
+    }
+
+    public int getHeight() {
+        return this.image.getHeight();
+    }
+
+    /**
+     * Whether the pixels hold colour channels already multiplied by alpha.
+     */
+    public boolean isPremultiplied() {
+        return this.premultiplied;
+    }
+
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * Writes changes back to the image if the pixels are a copy.
+     */
+    public void commit() {
+        if (!this.direct) {
+            this.image.setRGB(0, 0, this.image.getWidth(), this.image.getHeight(), this.pixels, 0, this.stride);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package dev.hephaestus.proximity.util;
+
+import dev.hephaestus.proximity.Proximity;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for work that was skipped or shared during a run. They're cheap to update from any render thread and are
+ * logged once at the end.
+ */
+public enum Metrics {
+    LAYERS_EMPTY("layers skipped for having no area"),
+    LAYERS_OFF_CANVAS("layers skipped for being outside the canvas or clip"),
+    LAYERS_OCCLUDED("layers skipped for being hidden under opaque layers"),
+    DERIVED_REUSED("parsed layer values reused between passes");
+
+    private final String description;
+    private final LongAdder count = new LongAdder();
+
+    Metrics(String description) {
+        this.description = description;
+    }
+
+    public void increment() {
+        this.count.increment();
+    }
+
+    public long get() {
+        return this.count.sum();
+    }
+
+    public static void log() {
+        for (Metrics metric : values()) {
+            long count = metric.get();
+
+            if (count > 0) {
+                Proximity.LOG.info("{} {}", count, metric.description);
+            }
+        }
+    }
+}
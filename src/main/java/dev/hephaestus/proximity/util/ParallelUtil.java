@@ -0,0 +1,106 @@
+package dev.hephaestus.proximity.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+public final class ParallelUtil {
+    private static final int MIN_ROWS_PER_TASK = 16;
+
+    private ParallelUtil() {
+    }
+
+    public static ForkJoinPool getPool() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Splits the rows {@code [0, rows)} into contiguous ranges and runs them on the shared fork/join pool,
+     * returning once every range has been processed.
+     */
+    public static void forEachRows(int rows, RowTask task) {
+        int parallelism = getPool().getParallelism();
+
+        if (parallelism <= 1 || rows < MIN_ROWS_PER_TASK * 2) {
+            task.run(0, rows);
+        } else {
+            int grain = Math.max(MIN_ROWS_PER_TASK, rows / (parallelism * 4));
+            RowAction action = new RowAction(task, 0, rows, grain);
+
+            if (ForkJoinTask.getPool() == getPool()) {
+                action.invoke();
+            } else {
+                getPool().invoke(action);
+            }
+        }
+    }
+
+    /**
+     * Runs a task for each index in {@code [0, count)} on the shared fork/join pool, each as its own unit of work,
+     * returning once all of them have finished. Meant for a handful of coarse, independent jobs.
+     */
+    public static void forEach(int count, IntConsumer task) {
+        if (getPool().getParallelism() <= 1 || count <= 1) {
+            for (int i = 0; i < count; ++i) {
+                task.accept(i);
+            }
+        } else {
+            RecursiveAction action = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    RecursiveAction[] actions = new RecursiveAction[count];
+
+                    for (int i = 0; i < count; ++i) {
+                        int index = i;
+
+                        actions[i] = new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                task.accept(index);
+                            }
+                        };
+                    }
+
+                    invokeAll(actions);
+                }
+            };
+
+            if (ForkJoinTask.getPool() == getPool()) {
+                action.invoke();
+            } else {
+                getPool().invoke(action);
+            }
+        }
+    }
+
+    public interface RowTask {
+        void run(int fromRow, int toRow);
+    }
+
+    private static final class RowAction extends RecursiveAction {
+        private final RowTask task;
+        private final int from, to, grain;
+
+        private RowAction(RowTask task, int from, int to, int grain) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.grain) {
+                this.task.run(this.from, this.to);
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+
+                invokeAll(
+                        new RowAction(this.task, this.from, middle, this.grain),
+                        new RowAction(this.task, middle, this.to, this.grain)
+                );
+            }
+        }
+    }
+}
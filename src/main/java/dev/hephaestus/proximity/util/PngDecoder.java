@@ -0,0 +1,256 @@
+package dev.hephaestus.proximity.util;
+
+import dev.hephaestus.proximity.effects.PixelKernels;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the PNGs that templates and card art are almost always made of, eight bit and not interlaced, straight into
+ * the pixels of a {@code TYPE_INT_ARGB_PRE} canvas. Anything else is left to ImageIO.
+ *
+ * <p>The image data is a single zlib stream and each row's filter depends on the row above it, so inflating and
+ * unfiltering happen in order. Converting the unfiltered rows to premultiplied pixels is split across the shared
+ * pool.</p>
+ */
+public final class PngDecoder {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452, PLTE = 0x504C5445, TRNS = 0x74524E53, IDAT = 0x49444154, IEND = 0x49454E44;
+    private static final int GRAY = 0, RGB = 2, INDEXED = 3, GRAY_ALPHA = 4, RGBA = 6;
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private PngDecoder() {
+    }
+
+    public static boolean isPng(byte[] bytes) {
+        return bytes.length >= 8 && ByteBuffer.wrap(bytes).getLong(0) == SIGNATURE;
+    }
+
+    /**
+     * Decodes a PNG, returning null if it uses a bit depth, interlacing or colour type this decoder doesn't handle.
+     */
+    public static BufferedImage decode(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        List<int[]> data = new ArrayList<>();
+        int width = 0, height = 0, colorType = -1;
+        int[] palette = null;
+        byte[] alphas = null;
+        int transparent = -1;
+
+        for (int position = 8; position + 8 <= bytes.length; ) {
+            int length = buffer.getInt(position);
+            int type = buffer.getInt(position + 4);
+            int start = position + 8;
+
+            if (length < 0 || start + length > bytes.length) {
+                throw new IOException("Truncated PNG chunk");
+            }
+
+            if (type == IHDR) {
+                width = buffer.getInt(start);
+                height = buffer.getInt(start + 4);
+                colorType = bytes[start + 9];
+
+                if (bytes[start + 8] != 8 || bytes[start + 12] != 0 || channels(colorType) == 0) {
+                    return null;
+                }
+            } else if (type == PLTE) {
+                palette = new int[length / 3];
+
+                for (int i = 0; i < palette.length; ++i) {
+                    palette[i] = 0xFF000000 | (bytes[start + i * 3] & 0xFF) << 16 | (bytes[start + i * 3 + 1] & 0xFF) << 8 | bytes[start + i * 3 + 2] & 0xFF;
+                }
+            } else if (type == TRNS) {
+                if (colorType == INDEXED) {
+                    alphas = new byte[length];
+                    System.arraycopy(bytes, start, alphas, 0, length);
+                } else if (colorType == GRAY && length >= 2) {
+                    transparent = buffer.getShort(start) & 0xFFFF;
+                } else if (colorType == RGB && length >= 6) {
+                    int r = buffer.getShort(start) & 0xFFFF, g = buffer.getShort(start + 2) & 0xFFFF, b = buffer.getShort(start + 4) & 0xFFFF;
+
+                    transparent = r > 0xFF || g > 0xFF || b > 0xFF ? -1 : r << 16 | g << 8 | b;
+                }
+            } else if (type == IDAT) {
+                data.add(new int[] { start, length });
+            } else if (type == IEND) {
+                break;
+            }
+
+            position = start + length + 4;
+        }
+
+        if (colorType < 0) {
+            throw new IOException("PNG has no header");
+        }
+
+        if (colorType == INDEXED) {
+            if (palette == null) {
+                throw new IOException("Indexed PNG has no palette");
+            }
+
+            for (int i = 0; alphas != null && i < Math.min(alphas.length, palette.length); ++i) {
+                palette[i] = (alphas[i] & 0xFF) << 24 | palette[i] & 0xFFFFFF;
+            }
+        }
+
+        int channels = channels(colorType);
+        long total = ((long) width * channels + 1) * height;
+
+        if (width <= 0 || height <= 0 || total > Integer.MAX_VALUE - 8) {
+            return null;
+        }
+
+        int stride = width * channels;
+        byte[] raw = inflate(bytes, data, (int) total);
+
+        unfilter(raw, stride, height, channels);
+
+        BufferedImage image = ImageUtil.createCanvas(width, height);
+        IntRaster raster = IntRaster.of(image);
+        int[] pixels = raster.getPixels();
+        int[] finalPalette = palette;
+        int finalTransparent = transparent;
+        int finalColorType = colorType;
+        int finalWidth = width;
+
+        ParallelUtil.forEachRows(height, (from, to) -> {
+            for (int y = from; y < to; ++y) {
+                int in = y * (stride + 1) + 1;
+                int out = raster.getRowOffset(y);
+
+                for (int x = 0; x < finalWidth; ++x) {
+                    pixels[out + x] = switch (finalColorType) {
+                        case GRAY -> {
+                            int gray = raw[in + x] & 0xFF;
+
+                            yield gray == finalTransparent ? 0 : 0xFF000000 | gray * 0x010101;
+                        }
+                        case RGB -> {
+                            int i = in + x * 3;
+                            int rgb = (raw[i] & 0xFF) << 16 | (raw[i + 1] & 0xFF) << 8 | raw[i + 2] & 0xFF;
+
+                            yield rgb == finalTransparent ? 0 : 0xFF000000 | rgb;
+                        }
+                        case INDEXED -> {
+                            int index = raw[in + x] & 0xFF;
+
+                            yield index < finalPalette.length ? finalPalette[index] : 0xFF000000;
+                        }
+                        case GRAY_ALPHA -> {
+                            int i = in + x * 2;
+
+                            yield (raw[i + 1] & 0xFF) << 24 | (raw[i] & 0xFF) * 0x010101;
+                        }
+                        default -> {
+                            int i = in + x * 4;
+
+                            yield (raw[i + 3] & 0xFF) << 24 | (raw[i] & 0xFF) << 16 | (raw[i + 1] & 0xFF) << 8 | raw[i + 2] & 0xFF;
+                        }
+                    };
+                }
+
+                PixelKernels.INSTANCE.premultiply(pixels, out, finalWidth);
+            }
+        });
+
+        raster.commit();
+
+        return image;
+    }
+
+    private static int channels(int colorType) {
+        return switch (colorType) {
+            case GRAY, INDEXED -> 1;
+            case GRAY_ALPHA -> 2;
+            case RGB -> 3;
+            case RGBA -> 4;
+            default -> 0;
+        };
+    }
+
+    private static byte[] inflate(byte[] bytes, List<int[]> data, int length) throws IOException {
+        Inflater inflater = INFLATER.get();
+        byte[] raw = new byte[length];
+        int inflated = 0, chunk = 0;
+
+        inflater.reset();
+
+        try {
+            while (inflated < length && !inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (chunk == data.size()) break;
+
+                    inflater.setInput(bytes, data.get(chunk)[0], data.get(chunk)[1]);
+                    ++chunk;
+                } else if (inflater.needsDictionary()) {
+                    break;
+                } else {
+                    inflated += inflater.inflate(raw, inflated, length - inflated);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt PNG data", e);
+        }
+
+        if (inflated < length) {
+            throw new IOException("Truncated PNG data");
+        }
+
+        return raw;
+    }
+
+    /**
+     * Reverses each row's filter in place. Rows are stored one after another, each preceded by its filter type.
+     */
+    private static void unfilter(byte[] raw, int stride, int height, int channels) throws IOException {
+        for (int y = 0; y < height; ++y) {
+            int row = y * (stride + 1) + 1;
+            int previous = row - stride - 1;
+
+            switch (raw[row - 1]) {
+                case 0 -> {
+                }
+                case 1 -> {
+                    for (int i = channels; i < stride; ++i) {
+                        raw[row + i] += raw[row + i - channels];
+                    }
+                }
+                case 2 -> {
+                    for (int i = 0; y > 0 && i < stride; ++i) {
+                        raw[row + i] += raw[previous + i];
+                    }
+                }
+                case 3 -> {
+                    for (int i = 0; i < stride; ++i) {
+                        int left = i >= channels ? raw[row + i - channels] & 0xFF : 0;
+                        int up = y > 0 ? raw[previous + i] & 0xFF : 0;
+
+                        raw[row + i] += (left + up) >>> 1;
+                    }
+                }
+                case 4 -> {
+                    for (int i = 0; i < stride; ++i) {
+                        int left = i >= channels ? raw[row + i - channels] & 0xFF : 0;
+                        int up = y > 0 ? raw[previous + i] & 0xFF : 0;
+                        int upLeft = i >= channels && y > 0 ? raw[previous + i - channels] & 0xFF : 0;
+                        int estimate = left + up - upLeft;
+                        int distanceLeft = Math.abs(estimate - left);
+                        int distanceUp = Math.abs(estimate - up);
+                        int distanceUpLeft = Math.abs(estimate - upLeft);
+
+                        raw[row + i] += distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft ? left
+                                : distanceUp <= distanceUpLeft ? up
+                                : upLeft;
+                    }
+                }
+                default -> throw new IOException("Unknown PNG filter " + raw[row - 1]);
+            }
+        }
+    }
+}
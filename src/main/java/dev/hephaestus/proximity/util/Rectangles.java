@@ -4,13 +4,27 @@ import org.jetbrains.annotations.NotNull;
 
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Consumer;
 
+/**
+ * A set of rectangles, used for layer bounds and for the regions text has to wrap around. The bounding box is cached,
+ * and once there are more than a handful of rectangles, queries go through an index sorted by top edge so that only
+ * rectangles overlapping the queried rows are tested.
+ */
 public class Rectangles implements Iterable<Rectangle2D> {
+    private static final int INDEX_THRESHOLD = 8;
+
     private final List<Rectangle2D> rectangles = new ArrayList<>();
 
+    // Derived from the rectangles, and reset whenever they change.
+    private Rectangle2D bounds;
+    private Rectangle2D[] sorted;
+    private double[] maxY;
+
     public static Rectangles singleton(Rectangle2D rectangle) {
         Rectangles rectangles = new Rectangles();
 
@@ -50,6 +64,11 @@ public class Rectangles implements Iterable<Rectangle2D> {
                 return false;
             }
 
+            @Override
+            public List<Span> getFreeSpans(double minX, double maxX, double minY, double maxY) {
+                return List.of();
+            }
+
             @Override
             public double getHeight() {
                 return Double.POSITIVE_INFINITY;
@@ -60,12 +79,29 @@ public class Rectangles implements Iterable<Rectangle2D> {
     public void add(Rectangle2D rectangle) {
         if (rectangle != null) {
             this.rectangles.add(rectangle);
+            this.invalidate();
         }
     }
 
     public boolean intersects(Rectangle2D rectangle) {
-        for (Rectangle2D r : this.rectangles) {
-            if (r.intersects(rectangle)) {
+        if (this.rectangles.isEmpty() || !overlaps(this.getCachedBounds(), rectangle)) {
+            return false;
+        }
+
+        if (this.rectangles.size() <= INDEX_THRESHOLD) {
+            for (Rectangle2D r : this.rectangles) {
+                if (r.intersects(rectangle)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        this.buildIndex();
+
+        for (int i = this.lastStartingAbove(rectangle.getMaxY()); i >= 0 && this.maxY[i] > rectangle.getMinY(); --i) {
+            if (this.sorted[i].intersects(rectangle)) {
                 return true;
             }
         }
@@ -74,8 +110,20 @@ public class Rectangles implements Iterable<Rectangle2D> {
     }
 
     public boolean intersects(Rectangles rectangles) {
-        for (Rectangle2D r : this.rectangles) {
-            if (rectangles.intersects(r)) {
+        if (rectangles.isInfinite()) {
+            return !this.isEmpty();
+        }
+
+        if (this.isEmpty() || rectangles.isEmpty() || !overlaps(this.getCachedBounds(), rectangles.getCachedBounds())) {
+            return false;
+        }
+
+        // Query the larger set, which is the one that benefits from its index, with each of the smaller set.
+        Rectangles small = this.rectangles.size() <= rectangles.rectangles.size() ? this : rectangles;
+        Rectangles large = small == this ? rectangles : this;
+
+        for (Rectangle2D r : small.rectangles) {
+            if (large.intersects(r)) {
                 return true;
             }
         }
@@ -83,18 +131,167 @@ public class Rectangles implements Iterable<Rectangle2D> {
         return false;
     }
 
+    /**
+     * Finds the parts of the horizontal range {@code [minX, maxX)} that aren't blocked by any of these rectangles
+     * anywhere between {@code minY} and {@code maxY}, such as the space left on a line of text by the regions it
+     * wraps around. The spans are returned in order, from left to right.
+     */
+    public List<Span> getFreeSpans(double minX, double maxX, double minY, double maxY) {
+        List<Span> spans = new ArrayList<>();
+        List<Rectangle2D> blocking = new ArrayList<>();
+
+        if (!this.rectangles.isEmpty() && this.rectangles.size() > INDEX_THRESHOLD) {
+            this.buildIndex();
+
+            for (int i = this.lastStartingAbove(maxY); i >= 0 && this.maxY[i] > minY; --i) {
+                blocking.add(this.sorted[i]);
+            }
+        } else {
+            blocking.addAll(this.rectangles);
+        }
+
+        blocking.removeIf(r -> r.isEmpty() || r.getMaxY() <= minY || r.getMinY() >= maxY || r.getMaxX() <= minX || r.getMinX() >= maxX);
+        blocking.sort(Comparator.comparingDouble(Rectangle2D::getMinX));
+
+        double x = minX;
+
+        for (Rectangle2D r : blocking) {
+            if (r.getMinX() > x) {
+                spans.add(new Span(x, r.getMinX()));
+            }
+
+            x = Math.max(x, r.getMaxX());
+        }
+
+        if (x < maxX) {
+            spans.add(new Span(x, maxX));
+        }
+
+        return spans;
+    }
+
+    public record Span(double start, double end) {
+        public double width() {
+            return this.end - this.start;
+        }
+    }
+
+    /**
+     * Whether every point of the given rectangle lies within at least one of these rectangles. Gives up and returns
+     * false if the uncovered remainder fragments into too many pieces.
+     */
+    public boolean covers(Rectangle2D rectangle) {
+        List<Rectangle2D> remaining = new ArrayList<>();
+        remaining.add(rectangle);
+
+        for (Rectangle2D r : this.rectangles) {
+            List<Rectangle2D> next = new ArrayList<>();
+
+            for (Rectangle2D piece : remaining) {
+                subtract(piece, r, next);
+            }
+
+            if (next.isEmpty()) return true;
+            if (next.size() > 64) return false;
+
+            remaining = next;
+        }
+
+        return remaining.isEmpty();
+    }
+
+    private static void subtract(Rectangle2D piece, Rectangle2D r, List<Rectangle2D> out) {
+        if (!piece.intersects(r)) {
+            out.add(piece);
+            return;
+        }
+
+        double top = Math.max(piece.getMinY(), r.getMinY());
+        double bottom = Math.min(piece.getMaxY(), r.getMaxY());
+
+        if (piece.getMinY() < top) {
+            out.add(new Rectangle2D.Double(piece.getMinX(), piece.getMinY(), piece.getWidth(), top - piece.getMinY()));
+        }
+
+        if (bottom < piece.getMaxY()) {
+            out.add(new Rectangle2D.Double(piece.getMinX(), bottom, piece.getWidth(), piece.getMaxY() - bottom));
+        }
+
+        if (piece.getMinX() < r.getMinX()) {
+            out.add(new Rectangle2D.Double(piece.getMinX(), top, r.getMinX() - piece.getMinX(), bottom - top));
+        }
+
+        if (r.getMaxX() < piece.getMaxX()) {
+            out.add(new Rectangle2D.Double(r.getMaxX(), top, piece.getMaxX() - r.getMaxX(), bottom - top));
+        }
+    }
+
     public void apply(Consumer<Rectangle2D> consumer) {
         this.rectangles.forEach(consumer);
     }
 
     public Rectangle2D getBounds() {
-        Rectangle2D bounds = null;
+        Rectangle2D bounds = this.getCachedBounds();
+
+        return bounds == null ? null : (Rectangle2D) bounds.clone();
+    }
+
+    private Rectangle2D getCachedBounds() {
+        if (this.bounds == null) {
+            for (Rectangle2D rectangle : this.rectangles) {
+                this.bounds = this.bounds == null ? rectangle : DrawingUtil.encompassing(rectangle, this.bounds);
+            }
+        }
+
+        return this.bounds;
+    }
 
-        for (Rectangle2D rectangle : this.rectangles) {
-            bounds = bounds == null ? rectangle : DrawingUtil.encompassing(rectangle, bounds);
+    private void invalidate() {
+        this.bounds = null;
+        this.sorted = null;
+        this.maxY = null;
+    }
+
+    private void buildIndex() {
+        if (this.sorted != null) {
+            return;
         }
 
-        return bounds;
+        Rectangle2D[] sorted = this.rectangles.toArray(new Rectangle2D[0]);
+        Arrays.sort(sorted, Comparator.comparingDouble(Rectangle2D::getMinY));
+
+        // The running maximum of bottom edges lets a scan stop as soon as nothing earlier can reach the query.
+        double[] maxY = new double[sorted.length];
+
+        for (int i = 0; i < sorted.length; ++i) {
+            maxY[i] = Math.max(i == 0 ? Double.NEGATIVE_INFINITY : maxY[i - 1], sorted[i].getMaxY());
+        }
+
+        this.sorted = sorted;
+        this.maxY = maxY;
+    }
+
+    /**
+     * The index in {@link #sorted} of the last rectangle whose top edge is above the given y, or -1 if there isn't one.
+     */
+    private int lastStartingAbove(double y) {
+        int low = 0, high = this.sorted.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (this.sorted[middle].getMinY() < y) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low - 1;
+    }
+
+    private static boolean overlaps(Rectangle2D a, Rectangle2D b) {
+        return a.getMinX() < b.getMaxX() && b.getMinX() < a.getMaxX() && a.getMinY() < b.getMaxY() && b.getMinY() < a.getMaxY();
     }
 
     public boolean isEmpty() {
@@ -102,6 +299,12 @@ public class Rectangles implements Iterable<Rectangle2D> {
     }
 
     public boolean fitsWithin(Rectangle2D rectangle) {
+        Rectangle2D bounds = this.getCachedBounds();
+
+        if (bounds != null && rectangle.contains(bounds)) {
+            return true;
+        }
+
         for (Rectangle2D r : this.rectangles) {
             if (r.getHeight() > 0 && r.getWidth() > 0 && !rectangle.contains(r)) {
                 return false;
@@ -123,10 +326,12 @@ public class Rectangles implements Iterable<Rectangle2D> {
 
     public void addAll(Rectangles rectangles) {
         this.rectangles.addAll(rectangles.rectangles);
+        this.invalidate();
     }
 
     public void clear() {
         this.rectangles.clear();
+        this.invalidate();
     }
 
     public double getWidth() {
@@ -1,6 +1,7 @@
 package dev.hephaestus.proximity.util;
 
 import dev.hephaestus.proximity.Proximity;
+import dev.hephaestus.proximity.api.json.JsonElement;
 import dev.hephaestus.proximity.api.json.JsonObject;
 import org.quiltmc.json5.JsonReader;
 
@@ -13,39 +14,169 @@ import java.net.URL;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.util.Map;
-import java.util.Random;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+/**
+ * Downloads remote files once and keeps them under {@code .cache}.
+ *
+ * <p>Downloads are stored by the SHA-256 of their contents under {@code .cache/objects}, so identical files fetched
+ * from different URIs are only kept once. When a size limit is set, the least recently used entries are evicted once
+ * the store grows past it.</p>
+ *
+ * <p>Entries are kept fresh according to the time-to-live policies in {@code cache_policies.txt}, where each line is a
+ * number of hours followed by a regular expression matched against URIs; the first matching line applies. Entries
+ * that have outlived their policy are still served straight away, and revalidated in the background with a
+ * conditional request so that unchanged files aren't downloaded again.</p>
+ *
+ * <p>The index of cached files is kept in memory and persisted as an append-only journal, one
+ * {@code uri\tpath\tsize\taccessed\tfetched\tetag\tlastModified} line per record, so recording a download is a single
+ * small write no matter how large the index gets. A record with an empty path removes its URI. A crash can at worst
+ * leave a partial last line, which is dropped the next time the journal is loaded. The journal is compacted when it
+ * has grown well past the number of live entries.</p>
+ *
+ * <p>Several processes can share one cache. Changes to the journal are made holding a lock on {@code index.lock}, after
+ * first reading whatever other processes have appended, so each process's index is merged with the others' before
+ * it's written to. A process that finds the journal was compacted by another reads it again from the start. Downloads
+ * hold a lock on one of a fixed set of files under {@code .cache/locks} chosen by URI, so a file being downloaded by
+ * one process is waited for rather than downloaded again by another.</p>
+ */
 public final class RemoteFileCache {
-    private static final char[] CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final Path DIRECTORY = Path.of(".cache");
+    private static final Path OBJECTS = DIRECTORY.resolve("objects");
+    private static final Path JOURNAL = DIRECTORY.resolve("index.journal");
+    private static final Path LEGACY_INDEX = DIRECTORY.resolve("index.json");
+    private static final Path LOCK = DIRECTORY.resolve("index.lock");
+    private static final Path LOCKS = DIRECTORY.resolve("locks");
+    private static final int STRIPES = 256;
+    private static final Path POLICIES = Path.of("cache_policies.txt");
+    // Card and set data changes now and then, while images and template assets at a given URI practically never do.
+    private static final List<Policy> DEFAULT_POLICIES = List.of(
+            new Policy(Pattern.compile("https://api\\.scryfall\\.com/.*"), 24 * 60 * 60 * 1000L)
+    );
+    private static final HttpClient CLIENT = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+    private static final int COMPACTION_SLACK = 1024;
+    // Access times are only journaled when they've moved by at least this much, so reading a cached file doesn't
+    // usually mean writing to the journal.
+    private static final long ACCESS_RESOLUTION = 60 * 60 * 1000;
 
-    private final JsonObject index;
+    private static RemoteFileCache instance;
+
+    private final List<Policy> policies = new ArrayList<>();
+    // Revalidation happens off the render threads, one request at a time.
+    private final ExecutorService revalidator = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Cache revalidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    // The index's URIs ordered by when they were last used, so eviction doesn't have to sort the index. Guarded by this.
+    private final NavigableSet<Access> recency = new TreeSet<>(Comparator.comparingLong(Access::accessed).thenComparing(Access::uri));
     private final Map<String, Boolean> existenceCache = new ConcurrentHashMap<>();
+    // Downloads that are under way, so that threads asking for the same file wait for one download instead of each
+    // starting their own.
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // How many entries point at each stored file, and the total size of the stored files. Guarded by this.
+    private final Map<Path, Integer> references = new HashMap<>();
+    // Download locks, shared with other processes through the files under .cache/locks. A file lock is held by the
+    // whole process, so threads in this one take turns on the stripe before locking the file.
+    private final FileChannel[] stripes = new FileChannel[STRIPES];
+    private final long started = System.currentTimeMillis();
+    private long size;
+    private long limit = Long.MAX_VALUE;
+    private FileChannel lock;
+    private FileChannel journal;
+    private Object journalKey;
+    // How far into the journal this process has read, and how many records that was.
+    private long position;
+    private int records;
 
-    private RemoteFileCache(JsonObject index) {
-        this.index = index;
+    private RemoteFileCache() {
     }
 
-    public static RemoteFileCache load() throws IOException {
-        Path cache = Path.of(".cache");
-        Path path = cache.resolve("index.json");
+    /**
+     * Returns the cache for this process, reading its index the first time it's asked for.
+     */
+    public static synchronized RemoteFileCache load() throws IOException {
+        if (instance == null) {
+            Files.createDirectories(LOCKS);
 
-        if (!Files.exists(cache)) {
-            Files.createDirectories(cache);
-        }
+            RemoteFileCache cache = new RemoteFileCache();
 
-        if (Files.exists(path)) {
-            return new RemoteFileCache(JsonObject.parseObject(JsonReader.json(path)));
-        } else {
-            return new RemoteFileCache(new JsonObject());
+            cache.lock = FileChannel.open(LOCK, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            synchronized (cache) {
+                try (FileLock ignored = cache.lock.lock()) {
+                    if (!Files.exists(JOURNAL)) {
+                        if (Files.exists(LEGACY_INDEX)) {
+                            JsonObject legacy = JsonObject.parseObject(JsonReader.json(LEGACY_INDEX));
+
+                            for (Map.Entry<String, JsonElement> entry : legacy.entrySet()) {
+                                Path path = Path.of(entry.getValue().getAsString());
+
+                                if (Files.exists(path)) {
+                                    cache.apply(entry.getKey(), new Entry(path, Files.size(path), 0, 0, null, null));
+                                }
+                            }
+                        }
+
+                        cache.compact();
+                    }
+                }
+
+                cache.locked(() -> {
+                    if (cache.records > cache.index.size() * 2 + COMPACTION_SLACK) {
+                        cache.compact();
+                    }
+
+                    return null;
+                });
+            }
+
+            if (Files.exists(POLICIES)) {
+                cache.readPolicies();
+            }
+
+            cache.policies.addAll(DEFAULT_POLICIES);
+
+            instance = cache;
         }
+
+        return instance;
+    }
+
+    /**
+     * Sets the most bytes the cache may store before least recently used entries are evicted.
+     */
+    public synchronized void setLimit(long limit) throws IOException {
+        this.limit = limit;
+        this.locked(() -> this.evict(limit));
     }
 
     public boolean exists(URI file) {
-        return this.existenceCache.computeIfAbsent(file.toString(), key -> this.index.has(file.toString()) || existsRemotely(file));
+        return this.existenceCache.computeIfAbsent(file.toString(), key -> this.index.containsKey(key) || existsRemotely(file));
     }
 
     private boolean existsRemotely(URI file) {
@@ -64,12 +195,46 @@ public final class RemoteFileCache {
         }
     }
     private Result<Path> fetch(URI file) throws IOException {
-        return Result.of(this.compute(file, uri -> uri.toURL().openStream()));
+        return Result.of(this.resolve(file, RemoteFileCache::request));
+    }
+
+    /**
+     * Fetches a file from its origin. HTTP requests go through the shared client so that the validators needed to
+     * revalidate the file later are recorded along with it.
+     */
+    private static Response request(URI file) throws IOException {
+        String scheme = file.getScheme();
+
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            return new Response(file.toURL().openStream(), null, null);
+        }
+
+        HttpResponse<InputStream> response;
+
+        try {
+            response = CLIENT.send(HttpRequest.newBuilder(file).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + file, e);
+        }
+
+        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+            response.body().close();
+            throw new IOException("Downloading " + file + " returned " + response.statusCode());
+        }
+
+        return new Response(
+                response.body(),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null)
+        );
     }
 
     public InputStream open(URI file) throws IOException {
-        if (this.index.has(file.toString())) {
-            return Files.newInputStream(Path.of(this.index.getAsString(file.toString())));
+        Path path = this.get(file.toString());
+
+        if (path != null) {
+            return Files.newInputStream(path);
         } else {
             Result<Path> result = fetch(file);
 
@@ -83,29 +248,69 @@ public final class RemoteFileCache {
     }
 
     public Path compute(URI file, Fetcher fetcher) throws IOException {
-        if (!this.index.has(file.toString())) {
-            Path path;
+        return this.resolve(file, uri -> new Response(fetcher.fetch(uri), null, null));
+    }
+
+    private Path resolve(URI file, Origin origin) throws IOException {
+        String key = file.toString();
+        Path path = this.get(key);
+
+        if (path != null) {
+            return path;
+        }
 
-            do {
-                path = Path.of(".cache", randomId());
-            } while (Files.exists(path));
+        CompletableFuture<Path> download = new CompletableFuture<>();
+        CompletableFuture<Path> existing = this.inFlight.putIfAbsent(key, download);
 
-            Files.copy(fetcher.fetch(file), path);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException exception ? exception : new IOException(e.getCause());
+            }
+        }
 
-            this.index.addProperty(file.toString(), path.toString());
+        try {
+            int stripe = Math.floorMod(key.hashCode(), STRIPES);
+
+            synchronized (this.stripes) {
+                if (this.stripes[stripe] == null) {
+                    this.stripes[stripe] = FileChannel.open(LOCKS.resolve(Integer.toHexString(stripe)), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                }
+            }
+
+            synchronized (this.stripes[stripe]) {
+                try (FileLock ignored = this.stripes[stripe].lock()) {
+                    // It may have been downloaded, here or by another process, since the index was last looked at.
+                    synchronized (this) {
+                        this.locked(() -> null);
+                    }
+
+                    path = this.get(key);
+
+                    if (path == null) {
+                        path = this.download(key, file, origin);
+                    }
+                }
+            }
 
-            Files.writeString(Path.of(".cache", "index.json"), this.index.toString());
+            download.complete(path);
 
             return path;
-        } else {
-            return Path.of(this.index.getAsString(file.toString()));
+        } catch (IOException | RuntimeException e) {
+            download.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, download);
         }
     }
 
     public Result<URL> getLocation(URI file) throws IOException {
-        if (this.index.has(file.toString())) {
+        Path path = this.get(file.toString());
+
+        if (path != null) {
             try {
-                return Result.of(Path.of(this.index.getAsString(file.toString())).toUri().toURL());
+                return Result.of(path.toUri().toURL());
             } catch (MalformedURLException e) {
                 return Result.error(ExceptionUtil.getErrorMessage(e));
             }
@@ -120,18 +325,508 @@ public final class RemoteFileCache {
         }
     }
 
-    private static String randomId() {
-        Random random = new Random();
-        char[] result = new char[32];
+    public Result<Path> getPath(URI file) throws IOException {
+        Path path = this.get(file.toString());
+
+        return path != null ? Result.of(path) : this.fetch(file);
+    }
+
+    public synchronized Stats getStats() {
+        long referenced = 0;
+
+        for (Entry entry : this.index.values()) {
+            referenced += entry.size;
+        }
+
+        return new Stats(this.index.size(), this.references.size(), this.size, referenced, this.limit);
+    }
+
+    /**
+     * Evicts entries down to the size limit and deletes any file in the cache that no entry points at, such as
+     * leftovers from interrupted downloads. Returns the number of bytes freed.
+     */
+    public synchronized long prune() throws IOException {
+        return this.locked(() -> {
+            long freed = this.evict(this.limit);
+            List<Path> orphans = new ArrayList<>();
+            // Files written in the last little while may belong to a download another process hasn't recorded yet.
+            FileTime recent = FileTime.fromMillis(System.currentTimeMillis() - ACCESS_RESOLUTION);
+
+            try (Stream<Path> files = Files.walk(DIRECTORY)) {
+                files.filter(Files::isRegularFile)
+                        .filter(path -> !path.equals(JOURNAL) && !path.equals(LEGACY_INDEX) && !path.equals(LOCK) && !path.startsWith(LOCKS))
+                        .filter(path -> !this.references.containsKey(path))
+                        .forEach(orphans::add);
+            }
+
+            for (Path path : orphans) {
+                long size = Files.size(path);
+
+                if (Files.getLastModifiedTime(path).compareTo(recent) < 0 && Files.deleteIfExists(path)) {
+                    freed += size;
+                }
+            }
+
+            return freed;
+        });
+    }
+
+    /**
+     * Looks up the stored file for a URI, noting that it was used and starting a revalidation if it's stale.
+     */
+    private Path get(String uri) throws IOException {
+        Entry entry = this.index.get(uri);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (!Files.exists(entry.path)) {
+            // Another process has evicted it since this one last read the journal.
+            synchronized (this) {
+                this.locked(() -> null);
+            }
+
+            entry = this.index.get(uri);
+
+            if (entry == null || !Files.exists(entry.path)) {
+                return null;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - entry.accessed >= ACCESS_RESOLUTION) {
+            Entry current = entry;
+
+            synchronized (this) {
+                this.locked(() -> {
+                    Entry touched = new Entry(current.path, current.size, now, current.fetched, current.etag, current.lastModified);
+
+                    if (this.index.replace(uri, current, touched)) {
+                        this.indexed(uri, current, touched);
+                        this.append(uri, touched);
+                    }
+
+                    return null;
+                });
+            }
+        }
+
+        if (now - entry.fetched >= this.getTimeToLive(uri) && (uri.startsWith("http://") || uri.startsWith("https://"))
+                && this.revalidating.add(uri)) {
+            this.revalidator.execute(() -> {
+                try {
+                    this.revalidate(uri);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    Proximity.LOG.debug("Failed to revalidate {}: {}", uri, ExceptionUtil.getErrorMessage(e));
+                } finally {
+                    this.revalidating.remove(uri);
+                }
+            });
+        }
+
+        return entry.path;
+    }
+
+    private long getTimeToLive(String uri) {
+        for (Policy policy : this.policies) {
+            if (policy.pattern.matcher(uri).matches()) {
+                return policy.timeToLive;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks a stale entry against its origin. A 304 only refreshes the entry, while a new body replaces its file.
+     * The replaced file is left for {@link #prune()}, since it may still be open.
+     */
+    private void revalidate(String uri) throws IOException, InterruptedException {
+        Entry entry = this.index.get(uri);
 
-        for (int i = 0; i < result.length; i++) {
-            int randomCharIndex = random.nextInt(CHARS.length);
-            result[i] = CHARS[randomCharIndex];
+        if (entry == null) {
+            return;
         }
-        return new String(result);
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(uri)).GET();
+
+        if (entry.etag != null) {
+            request.header("If-None-Match", entry.etag);
+        }
+
+        if (entry.lastModified != null) {
+            request.header("If-Modified-Since", entry.lastModified);
+        }
+
+        HttpResponse<InputStream> response = CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        String etag = response.headers().firstValue("ETag").orElse(entry.etag);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(entry.lastModified);
+
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                this.update(uri, new Entry(entry.path, entry.size, entry.accessed, System.currentTimeMillis(), etag, lastModified), false);
+            } else if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+                Stored stored = this.store(body);
+
+                this.update(uri, new Entry(stored.path, stored.size, entry.accessed, System.currentTimeMillis(), etag, lastModified), false);
+            } else {
+                Proximity.LOG.debug("Revalidating {} returned {}", uri, response.statusCode());
+            }
+        }
+    }
+
+    private Path download(String uri, URI file, Origin origin) throws IOException {
+        Response response = origin.fetch(file);
+        Stored stored = this.store(response.body);
+        long now = System.currentTimeMillis();
+
+        this.update(uri, new Entry(stored.path, stored.size, now, now, response.etag, response.lastModified), true);
+
+        return stored.path;
+    }
+
+    /**
+     * Writes a body into the store under the hash of its contents, unless the same bytes are already stored.
+     */
+    private Stored store(InputStream body) throws IOException {
+        Path temporary = Files.createTempFile(DIRECTORY, "download", ".tmp");
+        MessageDigest digest = sha256();
+
+        try (InputStream input = new DigestInputStream(body, digest)) {
+            Files.copy(input, temporary, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        String hash = toHex(digest.digest());
+        Path path = OBJECTS.resolve(hash.substring(0, 2)).resolve(hash);
+        long size = Files.size(temporary);
+
+        synchronized (this) {
+            if (Files.exists(path)) {
+                // The same bytes were already stored for another URI.
+                Files.delete(temporary);
+            } else {
+                Files.createDirectories(path.getParent());
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        return new Stored(path, size);
+    }
+
+    /**
+     * Points a URI at an entry, releasing the file it pointed at before. That file is only deleted if asked, since
+     * callers may still be reading it.
+     */
+    private synchronized void update(String uri, Entry entry, boolean delete) throws IOException {
+        this.locked(() -> {
+            this.reference(entry.path, entry.size);
+
+            Entry previous = this.index.put(uri, entry);
+
+            this.indexed(uri, previous, entry);
+
+            if (previous != null) {
+                this.release(previous.path, delete);
+            }
+
+            this.append(uri, entry);
+
+            return this.evict(this.limit);
+        });
+    }
+
+    /**
+     * Runs an action holding the journal lock, once anything other processes have appended to the journal has been
+     * read. Callers must hold the monitor on this cache, since the lock belongs to the whole process.
+     */
+    private <T> T locked(Action<T> action) throws IOException {
+        try (FileLock ignored = this.lock.lock()) {
+            Object key = Files.readAttributes(JOURNAL, BasicFileAttributes.class).fileKey();
+
+            if (this.journal == null || !Objects.equals(key, this.journalKey) || Files.size(JOURNAL) < this.position) {
+                // The journal was replaced by another process's compaction, so it's read again from the start.
+                this.index.clear();
+                this.recency.clear();
+                this.references.clear();
+                this.size = 0;
+                this.position = 0;
+                this.records = 0;
+
+                if (this.journal != null) {
+                    this.journal.close();
+                }
+
+                this.journal = FileChannel.open(JOURNAL, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                this.journalKey = key;
+            }
+
+            if (!this.read()) {
+                this.compact();
+            }
+
+            return action.run();
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the stored files fit within the given number of bytes, returning the
+     * number of bytes freed. Entries used since this process started are never evicted, since their files may still be
+     * open. Callers hold the journal lock.
+     */
+    private synchronized long evict(long limit) throws IOException {
+        if (this.size <= limit) {
+            return 0;
+        }
+
+        long before = this.size;
+
+        for (Iterator<Access> iterator = this.recency.iterator(); iterator.hasNext() && this.size > limit; ) {
+            Access access = iterator.next();
+
+            if (access.accessed >= this.started - ACCESS_RESOLUTION) {
+                break;
+            }
+
+            Entry entry = this.index.remove(access.uri);
+
+            iterator.remove();
+
+            if (entry != null) {
+                this.release(entry.path, true);
+                this.append(access.uri, null);
+            }
+        }
+
+        return before - this.size;
+    }
+
+    /**
+     * Moves a URI to its place in {@link #recency} after its entry in the index was replaced, added or removed.
+     */
+    private void indexed(String uri, Entry previous, Entry entry) {
+        if (previous != null) {
+            this.recency.remove(new Access(previous.accessed, uri));
+        }
+
+        if (entry != null) {
+            this.recency.add(new Access(entry.accessed, uri));
+        }
+    }
+
+    private void reference(Path path, long size) {
+        if (this.references.merge(path, 1, Integer::sum) == 1) {
+            this.size += size;
+        }
+    }
+
+    /**
+     * Drops a reference to a stored file, deleting the file once nothing points at it if asked to.
+     */
+    private void release(Path path, boolean delete) throws IOException {
+        if (this.references.computeIfPresent(path, (key, count) -> count == 1 ? null : count - 1) != null) {
+            return;
+        }
+
+        long size = Files.exists(path) ? Files.size(path) : 0;
+
+        try {
+            if (delete) {
+                Files.deleteIfExists(path);
+            }
+
+            this.size -= size;
+        } catch (IOException e) {
+            Proximity.LOG.warn("Failed to delete cached file {}: {}", path, ExceptionUtil.getErrorMessage(e));
+        }
+    }
+
+    /**
+     * Reads the journal from where this process last left off, returning false if its last record was cut off part way
+     * through being written. The journal then needs compacting before anything is appended to it.
+     */
+    private boolean read() throws IOException {
+        byte[] bytes;
+
+        try (FileChannel channel = FileChannel.open(JOURNAL, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - this.position));
+
+            while (buffer.hasRemaining() && channel.read(buffer, this.position + buffer.position()) >= 0) {
+            }
+
+            bytes = buffer.array();
+        }
+
+        int start = 0;
+
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] == '\n') {
+                String[] fields = new String(bytes, start, i - start, StandardCharsets.UTF_8).split("\t", -1);
+
+                if (fields.length >= 2 && fields[1].isEmpty()) {
+                    this.apply(fields[0], null);
+                } else if (fields.length >= 2) {
+                    try {
+                        Path path = Path.of(fields[1]);
+                        long size = fields.length >= 3 ? Long.parseLong(fields[2]) : Files.exists(path) ? Files.size(path) : 0;
+                        long accessed = fields.length >= 4 ? Long.parseLong(fields[3]) : 0;
+                        long fetched = fields.length >= 5 ? Long.parseLong(fields[4]) : accessed;
+                        String etag = fields.length >= 6 && !fields[5].isEmpty() ? fields[5] : null;
+                        String lastModified = fields.length >= 7 && !fields[6].isEmpty() ? fields[6] : null;
+
+                        this.apply(fields[0], new Entry(path, size, accessed, fetched, etag, lastModified));
+                    } catch (NumberFormatException | InvalidPathException e) {
+                        // Skipped, but still counted, so that compaction eventually drops it from the journal.
+                        Proximity.LOG.warn("Skipped malformed cache journal record for {}: {}", fields[0], ExceptionUtil.getErrorMessage(e));
+                    }
+                }
+
+                ++this.records;
+                start = i + 1;
+            }
+        }
+
+        this.position += start;
+
+        return start == bytes.length;
+    }
+
+    /**
+     * Applies a record read from the journal. Files that are no longer referenced are left alone, since whoever wrote
+     * the record has dealt with them.
+     */
+    private void apply(String uri, Entry entry) throws IOException {
+        Entry previous = entry == null ? this.index.remove(uri) : this.index.put(uri, entry);
+
+        this.indexed(uri, previous, entry);
+
+        if (entry != null) {
+            this.reference(entry.path, entry.size);
+        }
+
+        if (previous != null) {
+            this.release(previous.path, false);
+        }
+    }
+
+    private void readPolicies() throws IOException {
+        for (String line : Files.readAllLines(POLICIES)) {
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] split = line.split("\\s+", 2);
+
+            try {
+                this.policies.add(new Policy(Pattern.compile(split[1]), (long) (Double.parseDouble(split[0]) * 60 * 60 * 1000)));
+            } catch (RuntimeException e) {
+                Proximity.LOG.warn("Invalid cache policy '{}': {}", line, ExceptionUtil.getErrorMessage(e));
+            }
+        }
+    }
+
+    private synchronized void append(String uri, Entry entry) throws IOException {
+        byte[] bytes = record(uri, entry).getBytes(StandardCharsets.UTF_8);
+
+        this.journal.write(ByteBuffer.wrap(bytes));
+        this.position += bytes.length;
+
+        if (++this.records > this.index.size() * 2 + COMPACTION_SLACK) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal with one record per live entry. The new journal is written beside the old one and moved
+     * over it, so a crash part way through leaves one or the other intact.
+     */
+    private synchronized void compact() throws IOException {
+        if (this.journal != null) {
+            this.journal.close();
+        }
+
+        StringBuilder records = new StringBuilder();
+
+        this.index.forEach((uri, entry) -> records.append(record(uri, entry)));
+
+        Path temporary = DIRECTORY.resolve("index.journal.tmp");
+
+        Files.writeString(temporary, records);
+        Files.move(temporary, JOURNAL, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.records = this.index.size();
+        this.journal = FileChannel.open(JOURNAL, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.journalKey = Files.readAttributes(JOURNAL, BasicFileAttributes.class).fileKey();
+        this.position = this.journal.size();
+    }
+
+    private static String record(String uri, Entry entry) {
+        return entry == null
+                ? uri + "\t\n"
+                : uri + '\t' + entry.path + '\t' + entry.size + '\t' + entry.accessed + '\t' + entry.fetched
+                        + '\t' + field(entry.etag) + '\t' + field(entry.lastModified) + '\n';
+    }
+
+    private static String field(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return builder.toString();
     }
 
     public interface Fetcher {
         InputStream fetch(URI uri) throws IOException;
     }
+
+    private interface Origin {
+        Response fetch(URI uri) throws IOException;
+    }
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private record Entry(Path path, long size, long accessed, long fetched, String etag, String lastModified) {
+    }
+
+    private record Stored(Path path, long size) {
+    }
+
+    private record Access(long accessed, String uri) {
+    }
+
+    private record Response(InputStream body, String etag, String lastModified) {
+    }
+
+    private record Policy(Pattern pattern, long timeToLive) {
+    }
+
+    /**
+     * @param entries    the number of cached URIs
+     * @param files      the number of distinct files stored for them
+     * @param size       the bytes used by the stored files
+     * @param referenced the bytes the cached URIs would use if identical files weren't shared
+     * @param limit      the most bytes the cache may store, or {@link Long#MAX_VALUE} if it's unbounded
+     */
+    public record Stats(int entries, int files, long size, long referenced, long limit) {
+    }
 }
@@ -6,57 +6,135 @@ import java.awt.*;
 import java.awt.font.FontRenderContext;
 import java.awt.font.GlyphVector;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ImageObserver;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderableImage;
 import java.text.AttributedCharacterIterator;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
+/**
+ * A {@link Graphics2D} whose state changes can be pushed and popped. Each kind of state has its own pre-sized stack of
+ * previous values, so pushing and popping doesn't allocate, and the current transform is mirrored here so it can be
+ * saved without asking the wrapped graphics for a copy.
+ */
 public class StatefulGraphics extends Graphics2D {
+    private static final byte TRANSFORM = 0, COLOR = 1, FONT = 2, STROKE = 3, HINT = 4, OCCLUDERS = 5, MARKER = 6, CUSTOM = 7;
+
     private final BufferedImage image;
     private final Graphics2D wrapped;
-    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final AffineTransform transform;
+    private Rectangles occluders;
+
+    // The kind of each frame, in the order they were pushed, and a stack for the previous values of each kind.
+    private byte[] frames = new byte[32];
+    private int frameCount;
+    private double[] transforms = new double[6 * 16];
+    private int transformCount;
+    private Object[] values = new Object[32];
+    private int valueCount;
 
     public StatefulGraphics(BufferedImage image) {
         this.image = image;
         this.wrapped = GraphicsUtil.createGraphics(image);
+        this.transform = this.wrapped.getTransform();
     }
 
     public BufferedImage getImage() {
         return this.image;
     }
 
+    /**
+     * Pushes an arbitrary piece of state. Prefer the typed overloads where one exists, since this one allocates.
+     */
     public <T> void push(T value, BiConsumer<Graphics2D, T> setter, Function<Graphics2D, T> getter) {
-        this.frames.addFirst(new Value<>(getter.apply(this.wrapped), setter));
-        setter.accept(this.wrapped, value);
+        T oldValue = getter.apply(this);
+
+        this.pushFrame(CUSTOM);
+        this.pushValue((Frame) () -> setter.accept(StatefulGraphics.this, oldValue));
+        setter.accept(this, value);
+    }
+
+    public void push(Color color) {
+        this.pushFrame(COLOR);
+        this.pushValue(this.wrapped.getColor());
+        this.wrapped.setColor(color);
+    }
+
+    public void push(Font font) {
+        this.pushFrame(FONT);
+        this.pushValue(this.wrapped.getFont());
+        this.wrapped.setFont(font);
+    }
+
+    public void push(Stroke stroke) {
+        this.pushFrame(STROKE);
+        this.pushValue(this.wrapped.getStroke());
+        this.wrapped.setStroke(stroke);
+    }
+
+    public void push(RenderingHints.Key key, Object value) {
+        Object oldValue = this.wrapped.getRenderingHint(key);
+
+        this.pushFrame(HINT);
+        // A hint that isn't set reads back as null, which can't be set again, so all of the hints are saved instead.
+        this.pushValue(oldValue != null ? oldValue : this.wrapped.getRenderingHints());
+        this.pushValue(key);
+        this.wrapped.setRenderingHint(key, value);
+    }
+
+    public void push(int dX, int dY) {
+        this.pushTransform();
+        this.translate(dX, dY);
     }
 
     public void push(float scaleX, float scaleY) {
-        this.frames.addFirst(() -> StatefulGraphics.this.scale(1/scaleX, 1/scaleY));
+        this.pushTransform();
         this.scale(scaleX, scaleY);
     }
 
+    public void push(double theta) {
+        this.pushTransform();
+        this.rotate(theta);
+    }
+
     public void push(String frame) {
-        this.frames.addFirst(new Marker(frame));
+        this.pushFrame(MARKER);
+        this.pushValue(frame);
     }
 
-    public void push(double theta) {
-        this.push(theta, Graphics2D::rotate, g -> 2 * Math.PI);
+    /**
+     * Sets the regions that are known to be painted over with opaque content after whatever is drawn next, until the
+     * matching {@link #pop()}. Coordinates are in device space; null means nothing is known.
+     */
+    public void pushOccluders(Rectangles occluders) {
+        this.pushFrame(OCCLUDERS);
+        this.pushValue(this.occluders);
+        this.occluders = occluders;
     }
 
-    public void pop(int frameCount) {
-        for (int i = 0; i < frameCount; ++i) {
-            Frame frame = this.frames.poll();
+    public Rectangles getOccluders() {
+        return this.occluders;
+    }
 
-            if (frame != null) {
-                frame.pop();
-            }
+    /**
+     * Whether anything drawn within the given bounds will be completely painted over later, and so can be skipped.
+     */
+    public boolean isOccluded(Rectangle2D bounds) {
+        return this.occluders != null
+                && this.transform.isIdentity()
+                && this.wrapped.getComposite() == AlphaComposite.SrcOver
+                && this.occluders.covers(bounds);
+    }
+
+    public void pop(int frameCount) {
+        for (int i = 0; i < frameCount && this.frameCount > 0; ++i) {
+            this.popFrame();
         }
     }
 
@@ -65,34 +143,91 @@ public class StatefulGraphics extends Graphics2D {
     }
 
     public void pop(String frame) {
-        while (!this.frames.isEmpty()) {
-            Frame f = this.frames.pop();
+        while (this.frameCount > 0) {
+            if (this.popFrame() instanceof String name && name.equals(frame)) {
+                break;
+            }
+        }
+    }
 
-            f.pop();
+    /**
+     * Pops the most recent frame, returning the marker name if it was a marker.
+     */
+    private Object popFrame() {
+        byte kind = this.frames[--this.frameCount];
 
-            if (f instanceof Marker marker && marker.name.equals(frame)) {
-                break;
+        switch (kind) {
+            case TRANSFORM -> {
+                double[] t = this.transforms;
+                int i = this.transformCount -= 6;
+
+                this.transform.setTransform(t[i], t[i + 1], t[i + 2], t[i + 3], t[i + 4], t[i + 5]);
+                this.wrapped.setTransform(this.transform);
+            }
+            case COLOR -> this.wrapped.setColor((Color) this.popValue());
+            case FONT -> this.wrapped.setFont((Font) this.popValue());
+            case STROKE -> this.wrapped.setStroke((Stroke) this.popValue());
+            case HINT -> {
+                RenderingHints.Key key = (RenderingHints.Key) this.popValue();
+                Object value = this.popValue();
+
+                if (value instanceof RenderingHints hints) {
+                    this.wrapped.setRenderingHints(hints);
+                } else {
+                    this.wrapped.setRenderingHint(key, value);
+                }
+            }
+            case OCCLUDERS -> this.occluders = (Rectangles) this.popValue();
+            case MARKER -> {
+                return this.popValue();
             }
+            case CUSTOM -> ((Frame) this.popValue()).pop();
         }
+
+        return null;
     }
 
-    public void push(RenderingHints.Key key, Object value) {
-        this.push(
-                value,
-                (graphics, v) -> graphics.setRenderingHint(key, v),
-                graphics -> graphics.getRenderingHint(key)
-        );
+    private void pushFrame(byte kind) {
+        if (this.frameCount == this.frames.length) {
+            this.frames = Arrays.copyOf(this.frames, this.frames.length * 2);
+        }
+
+        this.frames[this.frameCount++] = kind;
     }
 
-    public void push(int dX, int dY) {
-        AffineTransform transform = this.wrapped.getTransform();
-        transform.translate(dX, dY);
+    private void pushValue(Object value) {
+        if (this.valueCount == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
 
-        this.push(
-                transform,
-                Graphics2D::setTransform,
-                Graphics2D::getTransform
-        );
+        this.values[this.valueCount++] = value;
+    }
+
+    private Object popValue() {
+        Object value = this.values[--this.valueCount];
+
+        this.values[this.valueCount] = null;
+
+        return value;
+    }
+
+    private void pushTransform() {
+        if (this.transformCount == this.transforms.length) {
+            this.transforms = Arrays.copyOf(this.transforms, this.transforms.length * 2);
+        }
+
+        double[] t = this.transforms;
+        int i = this.transformCount;
+
+        t[i] = this.transform.getScaleX();
+        t[i + 1] = this.transform.getShearY();
+        t[i + 2] = this.transform.getShearX();
+        t[i + 3] = this.transform.getScaleY();
+        t[i + 4] = this.transform.getTranslateX();
+        t[i + 5] = this.transform.getTranslateY();
+
+        this.transformCount += 6;
+        this.pushFrame(TRANSFORM);
     }
 
     @Override
@@ -213,46 +348,73 @@ public class StatefulGraphics extends Graphics2D {
     @Override
     public void translate(int x, int y) {
         wrapped.translate(x, y);
+        this.transform.translate(x, y);
     }
 
     @Override
     public void translate(double tx, double ty) {
         wrapped.translate(tx, ty);
+        this.transform.translate(tx, ty);
     }
 
     @Override
     public void rotate(double theta) {
         wrapped.rotate(theta);
+        this.transform.rotate(theta);
     }
 
     @Override
     public void rotate(double theta, double x, double y) {
         wrapped.rotate(theta, x, y);
+        this.transform.rotate(theta, x, y);
     }
 
     @Override
     public void scale(double sx, double sy) {
         wrapped.scale(sx, sy);
+        this.transform.scale(sx, sy);
     }
 
     @Override
     public void shear(double shx, double shy) {
         wrapped.shear(shx, shy);
+        this.transform.shear(shx, shy);
     }
 
     @Override
     public void transform(AffineTransform Tx) {
         wrapped.transform(Tx);
+        this.transform.concatenate(Tx);
     }
 
     @Override
     public void setTransform(AffineTransform Tx) {
         wrapped.setTransform(Tx);
+        this.transform.setTransform(Tx);
     }
 
     @Override
     public AffineTransform getTransform() {
-        return wrapped.getTransform();
+        return new AffineTransform(this.transform);
+    }
+
+    public double getTranslateX() {
+        return this.transform.getTranslateX();
+    }
+
+    public double getTranslateY() {
+        return this.transform.getTranslateY();
+    }
+
+    public boolean hasIdentityTransform() {
+        return this.transform.isIdentity();
+    }
+
+    /**
+     * The type of the current transform, as given by {@link AffineTransform#getType()}, without copying it.
+     */
+    public int getTransformType() {
+        return this.transform.getType();
     }
 
     @Override
@@ -508,25 +670,4 @@ public class StatefulGraphics extends Graphics2D {
     private interface Frame {
         void pop();
     }
-
-    private class Value<T> implements Frame {
-        private final T oldValue;
-        private final BiConsumer<Graphics2D, T> setter;
-
-        private Value(T oldValue, BiConsumer<Graphics2D, T> setter) {
-            this.oldValue = oldValue;
-            this.setter = setter;
-        }
-
-        public void pop() {
-            this.setter.accept(StatefulGraphics.this.wrapped, oldValue);
-        }
-    }
-
-    private record Marker(String name) implements Frame {
-        @Override
-        public void pop() {
-
-        }
-    }
 }
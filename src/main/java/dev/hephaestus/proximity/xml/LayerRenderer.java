@@ -3,12 +3,16 @@ package dev.hephaestus.proximity.xml;
 import dev.hephaestus.proximity.Proximity;
 import dev.hephaestus.proximity.api.Values;
 import dev.hephaestus.proximity.api.tasks.Effect;
+import dev.hephaestus.proximity.effects.EffectChain;
+import dev.hephaestus.proximity.effects.PixelKernels;
 import dev.hephaestus.proximity.templates.layers.renderers.EffectLayerRenderer;
 import dev.hephaestus.proximity.templates.layers.renderers.LayerGroupRenderer;
 import dev.hephaestus.proximity.cards.predicates.CardPredicate;
 import dev.hephaestus.proximity.util.*;
 
 import java.awt.Color;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.*;
@@ -30,30 +34,19 @@ public abstract class LayerRenderer {
         float oldScale = scale.get();
 
         List<String> errors = new ArrayList<>();
-        List<CardPredicate> predicates = new ArrayList<>();
-        boolean render = true;
-
-        element.apply("Conditions", conditions -> {
-            conditions.iterate((condition, i) -> XMLUtil.parsePredicate(condition, card::getPredicate, card::exists)
-                    .ifPresent(predicates::add)
-                    .ifError(errors::add));
-        });
-
-        for (CardPredicate predicate : predicates) {
-            Result<Boolean> r = predicate.test(card);
+        Result<Boolean> conditions = this.testConditions(card, element);
 
-            if (r.isOk() && !r.get()) {
-                render = false;
-                break;
-            }
+        if (conditions.isError()) {
+            return conditions.unwrap();
         }
 
-        if (!errors.isEmpty()) {
-            return Result.error("Error(s) parsing predicates:\n\t%s", String.join("\n\t", errors));
+        if (!conditions.get()) {
+            return Result.of(Optional.empty());
         }
 
-        if (!render) {
-            return Result.of(Optional.empty());
+        // A layer that can't be seen is only measured, so layout doesn't change.
+        if (draw && !this.isVisible(card, element, graphics)) {
+            draw = false;
         }
 
         if (draw && !element.getId().isEmpty()) {
@@ -104,25 +97,46 @@ public abstract class LayerRenderer {
 
         Result<Optional<Rectangles>> result;
 
-        if (mask.isPresent() || erase.isPresent() || coloration.isPresent() || !effects.isEmpty()) {
+        if (!draw) {
+            // Nothing is painted, so the modifiers are measured against the same graphics without intermediate images.
+            Result<Optional<Rectangles>> maskResult = Result.of(Optional.empty());
+
+            for (var modifier : List.of(mask, erase, coloration)) {
+                if (modifier.isPresent()) {
+                    Result<Optional<Rectangles>> modifierResult = modifier.get().right().render(card, modifier.get().left(), graphics, wrap, false, scale, bounds);
+
+                    if (modifierResult.isError()) return modifierResult;
+
+                    if (modifier == mask) {
+                        maskResult = modifierResult;
+                    }
+                }
+            }
+
+            result = this.renderLayer(card, element, graphics, wrap, false, scale, bounds);
+
+            if (result.isOk() && (mask.isPresent() || erase.isPresent() || coloration.isPresent() || !effects.isEmpty())) {
+                result = maskResult;
+            }
+        } else if (mask.isPresent() || erase.isPresent() || coloration.isPresent() || !effects.isEmpty()) {
             int width = graphics.getImage().getWidth(), height = graphics.getImage().getHeight();
 
-            BufferedImage maskImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            BufferedImage maskImage = ImageUtil.createCanvas(width, height);
             Result<Optional<Rectangles>> maskResult = mask.isPresent() ? mask.get().right().render(card, mask.get().left(), new StatefulGraphics(maskImage), wrap, draw,scale, bounds) : Result.of(Optional.empty());
 
             if (maskResult.isError()) return maskResult;
 
-            BufferedImage eraseImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            BufferedImage eraseImage = ImageUtil.createCanvas(width, height);
             Result<Optional<Rectangles>> eraseResult = erase.isPresent() ? erase.get().right().render(card, erase.get().left(), new StatefulGraphics(eraseImage), wrap, draw,scale, bounds) : Result.of(Optional.empty());
 
             if (eraseResult.isError()) return eraseResult;
 
-            BufferedImage colorationImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            BufferedImage colorationImage = ImageUtil.createCanvas(width, height);
             Result<Optional<Rectangles>> colorationResult = coloration.isPresent() ? coloration.get().right().render(card, coloration.get().left(), new StatefulGraphics(colorationImage), wrap, draw,scale, bounds) : Result.of(Optional.empty());
 
             if (colorationResult.isError()) return colorationResult;
 
-            BufferedImage layerImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            BufferedImage layerImage = ImageUtil.createCanvas(width, height);
             StatefulGraphics layerGraphics = new StatefulGraphics(layerImage);
 
             if (this instanceof EffectLayerRenderer) {
@@ -134,53 +148,24 @@ public abstract class LayerRenderer {
             if (layerResult.isError()) return layerResult;
 
             if (mask.isPresent() || erase.isPresent() || coloration.isPresent()) {
-                int[] layer = layerImage.getRGB(0, 0, width, height, null, 0, width);
-                int[] masks = mask.isPresent() ? maskImage.getRGB(0, 0, width, height, null, 0, width) : null;
-                int[] erasure = erase.isPresent() ? eraseImage.getRGB(0, 0, width, height, null, 0, width) : null;
-                int[] colorations = coloration.isPresent() ? colorationImage.getRGB(0, 0, width, height, null, 0, width) : null;
-                float[] hsb1 = new float[3];
-                float[] hsb2 = new float[3];
-
-                for (int i = 0; i < layer.length; i++) {
-                    int color = layer[i];
-
-                    if (colorations != null) {
-                        int r = (color >> 16) & 0xFF;
-                        int g = (color >> 8) & 0xFF;
-                        int b = color & 0xFF;
-
-                        Color.RGBtoHSB(r, g, b, hsb1);
-
-                        int c = colorations[i];
-
-                        r = (c >> 16) & 0xFF;
-                        g = (c >> 8) & 0xFF;
-                        b = c & 0xFF;
-
-                        Color.RGBtoHSB(r, g, b, hsb2);
-
-                        color = Color.HSBtoRGB(hsb2[0], hsb1[1], hsb1[2]);
-                    }
-
-                    color &= 0x00FFFFFF;
-
-                    int originalAlpha = layer[i] >>> 24;
-                    int alphaModifier = ((masks == null ? 0xFF000000 : masks[i]) >>> 24) - (erasure == null ? 0 : (erasure[i] >>> 24));
-                    int alpha = Math.round(255 * ((originalAlpha / 255F) * (alphaModifier / 255F))) << 24;
-
-                    layer[i] = color | alpha;
-                }
-
-                layerImage.setRGB(0, 0, width, height, layer, 0, width);
+                composite(
+                        IntRaster.of(layerImage),
+                        mask.isPresent() ? IntRaster.of(maskImage) : null,
+                        erase.isPresent() ? IntRaster.of(eraseImage) : null,
+                        coloration.isPresent() ? IntRaster.of(colorationImage) : null
+                );
             }
 
-            for (var pair : effects) {
-                pair.right().apply(card, layerImage, pair.left());
-            }
+            EffectChain.plan(card, effects).apply(card, layerImage);
 
             graphics.drawImage(layerImage, null, null);
 
             result = maskResult;
+        } else if (graphics.getOccluders() != null && this.readsCanvas(card, element)) {
+            // Layers inside this one can't be culled by anything drawn after it, since it reads them back first.
+            graphics.pushOccluders(null);
+            result = this.renderLayer(card, element, graphics, wrap, draw, scale, bounds);
+            graphics.pop();
         } else {
             result = this.renderLayer(card, element, graphics, wrap, draw, scale, bounds);
         }
@@ -201,6 +186,229 @@ public abstract class LayerRenderer {
 
     }
 
+    private boolean isVisible(RenderableData card, RenderableData.XMLElement element, StatefulGraphics graphics) {
+        Optional<Rectangle2D> expected = this.getDrawBounds(card, element);
+
+        if (expected.isEmpty()) {
+            return true;
+        }
+
+        Rectangle2D bounds = expected.get();
+
+        if (bounds.isEmpty()) {
+            Proximity.LOG.debug("Skipped {}: no area", element.getId());
+            Metrics.LAYERS_EMPTY.increment();
+            return false;
+        }
+
+        BufferedImage image = graphics.getImage();
+        Shape clip = graphics.getClip();
+
+        if (!onCanvas(graphics, bounds, image) || clip != null && !clip.intersects(bounds)) {
+            Proximity.LOG.debug("Skipped {}: outside of canvas", element.getId());
+            Metrics.LAYERS_OFF_CANVAS.increment();
+            return false;
+        }
+
+        if (graphics.isOccluded(bounds)) {
+            Proximity.LOG.debug("Skipped {}: occluded", element.getId());
+            Metrics.LAYERS_OCCLUDED.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean onCanvas(StatefulGraphics graphics, Rectangle2D bounds, BufferedImage image) {
+        if ((graphics.getTransformType() & ~AffineTransform.TYPE_TRANSLATION) != 0) {
+            return graphics.getTransform().createTransformedShape(bounds).intersects(0, 0, image.getWidth(), image.getHeight());
+        }
+
+        double x = bounds.getX() + graphics.getTranslateX();
+        double y = bounds.getY() + graphics.getTranslateY();
+
+        return x + bounds.getWidth() > 0 && y + bounds.getHeight() > 0 && x < image.getWidth() && y < image.getHeight();
+    }
+
+    /**
+     * The bounds this layer may draw within, in the same coordinates as its x and y attributes, or empty if they
+     * can't be known without rendering it. Only layers with known bounds are ever culled.
+     */
+    public Optional<Rectangle2D> getExpectedBounds(RenderableData card, RenderableData.XMLElement element) {
+        return Optional.empty();
+    }
+
+    /**
+     * Regions this layer is guaranteed to cover with fully opaque pixels. Defaults to nothing, which is always safe.
+     */
+    protected Rectangles getOpaqueLayerBounds(RenderableData card, RenderableData.XMLElement element) {
+        return new Rectangles();
+    }
+
+    /**
+     * Whether this layer or anything inside it reads back or overwrites what has already been drawn, rather than
+     * just compositing over it. Nothing underneath such a layer may be culled, and it can only be drawn directly onto
+     * the canvas, so renderers that touch the canvas like that must override this.
+     */
+    public boolean readsCanvas(RenderableData card, RenderableData.XMLElement element) {
+        return false;
+    }
+
+    /**
+     * The expected bounds of this layer including anything its modifiers do, or empty if they aren't known. Effects
+     * can draw outside of a layer, so layers with effects never have known bounds.
+     */
+    public final Optional<Rectangle2D> getDrawBounds(RenderableData card, RenderableData.XMLElement element) {
+        if (hasChild(element, "Effects")) {
+            return Optional.empty();
+        }
+
+        return this.getExpectedBounds(card, element);
+    }
+
+    public final Rectangles getOpaqueBounds(RenderableData card, RenderableData.XMLElement element) {
+        Result<Boolean> conditions = this.testConditions(card, element);
+
+        if (conditions.isError() || !conditions.get() || hasChild(element, "Mask") || hasChild(element, "Erase") || hasChild(element, "Effects")) {
+            return new Rectangles();
+        }
+
+        return this.getOpaqueLayerBounds(card, element);
+    }
+
+    /**
+     * For each of a list of sibling layers that will be drawn in order, works out which regions are painted over
+     * with opaque content after it, including anything already known to be painted after the siblings themselves.
+     * The result is parallel to the list of layers; an entry is null if nothing is known.
+     */
+    public static List<Rectangles> getOccluders(RenderableData card, StatefulGraphics graphics, List<Pair<RenderableData.XMLElement, LayerRenderer>> layers) {
+        List<Rectangles> result = new ArrayList<>(Collections.nCopies(layers.size(), null));
+
+        if (!graphics.hasIdentityTransform()) {
+            return result;
+        }
+
+        Rectangles occluders = new Rectangles();
+
+        if (graphics.getOccluders() != null) {
+            occluders.addAll(graphics.getOccluders());
+        }
+
+        for (int i = layers.size() - 1; i >= 0; --i) {
+            RenderableData.XMLElement element = layers.get(i).left();
+            LayerRenderer renderer = layers.get(i).right();
+
+            if (!occluders.isEmpty()) {
+                Rectangles copy = new Rectangles();
+                copy.addAll(occluders);
+                result.set(i, copy);
+            }
+
+            if (renderer.readsCanvas(card, element)) {
+                occluders.clear();
+            } else {
+                occluders.addAll(renderer.getOpaqueBounds(card, element));
+            }
+        }
+
+        return result;
+    }
+
+    private Result<Boolean> testConditions(RenderableData card, RenderableData.XMLElement element) {
+        List<String> errors = new ArrayList<>();
+        List<CardPredicate> predicates = new ArrayList<>();
+        boolean render = true;
+
+        element.apply("Conditions", conditions -> {
+            conditions.iterate((condition, i) -> XMLUtil.parsePredicate(condition, card::getPredicate, card::exists)
+                    .ifPresent(predicates::add)
+                    .ifError(errors::add));
+        });
+
+        for (CardPredicate predicate : predicates) {
+            Result<Boolean> r = predicate.test(card);
+
+            if (r.isOk() && !r.get()) {
+                render = false;
+                break;
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            return Result.error("Error(s) parsing predicates:\n\t%s", String.join("\n\t", errors));
+        }
+
+        return Result.of(render);
+    }
+
+    private static boolean hasChild(RenderableData.XMLElement element, String tagName) {
+        return element.apply(tagName, (RenderableData.XMLElement e) -> e).isPresent();
+    }
+
+    /**
+     * Recolours the layer with the hue of the coloration image and scales its alpha by the mask and erase images.
+     * All four images are created together with the same size and type, so a pixel has the same offset in each.
+     */
+    private static void composite(IntRaster layer, IntRaster mask, IntRaster erase, IntRaster coloration) {
+        int[] pixels = layer.getPixels();
+        int[] masks = mask == null ? null : mask.getPixels();
+        int[] erasure = erase == null ? null : erase.getPixels();
+        int[] colorations = coloration == null ? null : coloration.getPixels();
+        int width = layer.getWidth();
+
+        ParallelUtil.forEachRows(layer.getHeight(), (from, to) -> {
+            float[] hsb1 = new float[3];
+            float[] hsb2 = new float[3];
+
+            for (int y = from; y < to; ++y) {
+                int offset = layer.getRowOffset(y);
+
+                if (colorations != null) {
+                    if (layer.isPremultiplied()) {
+                        PixelKernels.INSTANCE.unpremultiply(pixels, offset, width);
+                    }
+
+                    if (coloration.isPremultiplied()) {
+                        PixelKernels.INSTANCE.unpremultiply(colorations, offset, width);
+                    }
+
+                    for (int i = offset; i < offset + width; i++) {
+                        int color = pixels[i];
+                        int r = (color >> 16) & 0xFF;
+                        int g = (color >> 8) & 0xFF;
+                        int b = color & 0xFF;
+
+                        Color.RGBtoHSB(r, g, b, hsb1);
+
+                        int c = colorations[i];
+
+                        r = (c >> 16) & 0xFF;
+                        g = (c >> 8) & 0xFF;
+                        b = c & 0xFF;
+
+                        Color.RGBtoHSB(r, g, b, hsb2);
+
+                        pixels[i] = (color & 0xFF000000) | (Color.HSBtoRGB(hsb2[0], hsb1[1], hsb1[2]) & 0x00FFFFFF);
+                    }
+                }
+
+                if (layer.isPremultiplied()) {
+                    if (colorations != null) {
+                        PixelKernels.INSTANCE.premultiply(pixels, offset, width);
+                    }
+
+                    if (masks != null || erasure != null) {
+                        PixelKernels.INSTANCE.multiplyAlphaPremultiplied(pixels, masks, erasure, offset, width);
+                    }
+                } else if (masks != null || erasure != null) {
+                    PixelKernels.INSTANCE.multiplyAlpha(pixels, masks, erasure, offset, width);
+                }
+            }
+        });
+
+        layer.commit();
+    }
+
     public interface Factory<T extends LayerRenderer> {
         T create(RenderableData card);
     }
@@ -0,0 +1,166 @@
+package dev.hephaestus.proximity.xml;
+
+import dev.hephaestus.proximity.util.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Renders a card's top level layers concurrently. Each independent layer is drawn into its own transparent buffer on
+ * the shared fork/join pool, and the buffers are then composited onto the canvas in order. Because compositing over
+ * is associative this gives the same image as drawing each layer straight onto the canvas.
+ *
+ * <p>Top level layers don't share wraps or scales, so the only dependencies between them are through the canvas and
+ * the card itself. Card modifiers anywhere in the template have all run by the time the layers are wrapped, so only
+ * layers that read or overwrite the canvas act as barriers: the layers before them are flushed and they're then drawn
+ * directly onto the canvas.</p>
+ *
+ * <p>Each buffer is as large as the canvas, four bytes per pixel, so about 12MB for a 1500x2100 card. Buffers are
+ * pooled between every scheduler, and no more than one per thread of the fork/join pool exists at once no matter how
+ * many cards are rendering: a scheduler waits for enough buffers to be free before flushing.</p>
+ */
+final class LayerScheduler {
+    private static final int BUFFERS = Math.max(1, ParallelUtil.getPool().getParallelism());
+    private static final Semaphore PERMITS = new Semaphore(BUFFERS);
+    private static final Queue<BufferedImage> FREE = new ConcurrentLinkedQueue<>();
+
+    private final RenderableData card;
+    private final StatefulGraphics graphics;
+    private final List<Job> pending = new ArrayList<>();
+
+    private LayerScheduler(RenderableData card, StatefulGraphics graphics) {
+        this.card = card;
+        this.graphics = graphics;
+    }
+
+    static void render(RenderableData card, StatefulGraphics graphics, List<Pair<RenderableData.XMLElement, LayerRenderer>> layers, List<Rectangles> occluders, List<String> errors) {
+        LayerScheduler scheduler = new LayerScheduler(card, graphics);
+
+        for (int i = 0; i < layers.size(); ++i) {
+            RenderableData.XMLElement element = layers.get(i).left();
+            LayerRenderer renderer = layers.get(i).right();
+
+            if (renderer.readsCanvas(card, element)) {
+                scheduler.flush(errors);
+
+                graphics.pushOccluders(occluders.get(i));
+                renderer.render(card, element, graphics, null, true, new Box<>(0F), null)
+                        .ifError(errors::add);
+                graphics.pop();
+            } else {
+                scheduler.pending.add(new Job(element, renderer, occluders.get(i)));
+
+                if (scheduler.pending.size() == BUFFERS) {
+                    scheduler.flush(errors);
+                }
+            }
+        }
+
+        scheduler.flush(errors);
+    }
+
+    private void flush(List<String> errors) {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        int width = this.graphics.getImage().getWidth();
+        int height = this.graphics.getImage().getHeight();
+        Rectangle canvas = new Rectangle(0, 0, width, height);
+        BufferedImage[] buffers = acquire(this.pending.size(), width, height);
+
+        try {
+            ParallelUtil.forEach(this.pending.size(), i -> {
+                Job job = this.pending.get(i);
+                StatefulGraphics buffer = new StatefulGraphics(buffers[i]);
+
+                // Bounds are worked out before rendering, while the layer's attributes are as they were when it was
+                // scheduled, and limit how much of the buffer is composited afterwards.
+                Optional<Rectangle2D> bounds = job.renderer.getDrawBounds(this.card, job.element);
+
+                job.region = bounds.isPresent() ? bounds.get().getBounds().intersection(canvas) : canvas;
+
+                buffer.pushOccluders(job.occluders);
+                job.result = job.renderer.render(this.card, job.element, buffer, null, true, new Box<>(0F), null);
+                buffer.pop();
+                buffer.dispose();
+            });
+
+            for (int i = 0; i < this.pending.size(); ++i) {
+                Job job = this.pending.get(i);
+                Rectangle region = job.region;
+
+                job.result.ifError(errors::add);
+
+                if (!region.isEmpty()) {
+                    this.graphics.drawImage(buffers[i].getSubimage(region.x, region.y, region.width, region.height), region.x, region.y, null);
+                }
+            }
+        } finally {
+            release(buffers);
+            this.pending.clear();
+        }
+    }
+
+    /**
+     * Takes cleared buffers from the shared pool, waiting until enough are free. Permits are taken all at once, so
+     * schedulers can't each hold part of what they need. Pooled buffers of a different size are dropped and replaced.
+     */
+    private static BufferedImage[] acquire(int count, int width, int height) {
+        BufferedImage[] buffers = new BufferedImage[count];
+
+        PERMITS.acquireUninterruptibly(count);
+
+        for (int i = 0; i < count; ++i) {
+            BufferedImage buffer = FREE.poll();
+
+            if (buffer == null || buffer.getWidth() != width || buffer.getHeight() != height) {
+                buffers[i] = ImageUtil.createCanvas(width, height);
+            } else {
+                clear(buffer);
+                buffers[i] = buffer;
+            }
+        }
+
+        return buffers;
+    }
+
+    private static void release(BufferedImage[] buffers) {
+        FREE.addAll(Arrays.asList(buffers));
+        PERMITS.release(buffers.length);
+    }
+
+    private static void clear(BufferedImage image) {
+        IntRaster raster = IntRaster.of(image);
+
+        for (int y = 0; y < raster.getHeight(); ++y) {
+            int offset = raster.getRowOffset(y);
+
+            Arrays.fill(raster.getPixels(), offset, offset + raster.getWidth(), 0);
+        }
+
+        raster.commit();
+    }
+
+    private static final class Job {
+        private final RenderableData.XMLElement element;
+        private final LayerRenderer renderer;
+        private final Rectangles occluders;
+        private Rectangle region;
+        private Result<Optional<Rectangles>> result;
+
+        private Job(RenderableData.XMLElement element, LayerRenderer renderer, Rectangles occluders) {
+            this.element = element;
+            this.renderer = renderer;
+            this.occluders = occluders;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import dev.hephaestus.proximity.plugins.TaskHandler;
 import dev.hephaestus.proximity.templates.TemplateSource;
 import dev.hephaestus.proximity.text.Style;
 import dev.hephaestus.proximity.text.Symbol;
+import dev.hephaestus.proximity.text.SymbolMatcher;
 import dev.hephaestus.proximity.text.TextComponent;
 import dev.hephaestus.proximity.util.*;
 import org.w3c.dom.Element;
@@ -24,15 +25,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public final class RenderableData extends JsonObject implements TemplateSource {
     public static final Pattern SUBSTITUTE = Pattern.compile("\\$(?<function>[\\w.]*)\\{(?<value>[.[^}]]*)}");
     public static final Pattern KEY = Pattern.compile("^(?<key>[a-zA-Z0-9_]+)(?<range>\\[(?<start>[0-9]+)(?<end>:-?[0-9]+)?])?$");
+    private static final Object ABSENT = new Object();
 
     private final Proximity proximity;
     private final TaskHandler taskHandler;
@@ -43,6 +47,18 @@ public final class RenderableData extends JsonObject implements TemplateSource {
     private final Map<String, Element> gradients = new LinkedHashMap<>();
     private final List<Symbol> symbols = new ArrayList<>();
     private final Map<String, LayerRenderer> layerRenderers;
+    // Built from the symbols whose conditions hold for this card, and dropped whenever a CardModifier changes the card.
+    private volatile SymbolMatcher symbolMatcher;
+    // Values worked out from this card and a template element, like parsed text, that layouts would otherwise redo on
+    // every measuring pass. Keyed by the underlying DOM element, which has a single wrapper for as long as layers are
+    // being rendered.
+    private final Map<Pair<Element, Object>, Object> derived = new ConcurrentHashMap<>();
+    // Wrappers for the template's elements, kept once template modifications have run so that each element's
+    // modifiers and properties are only evaluated the first time it's visited. Guarded by the document lock.
+    private Map<Element, XMLElement> wrappers;
+    // DOM implementations aren't safe to use from several threads at once, even just to read, so every access to the
+    // template's elements goes through this lock. Rendering itself happens outside of it.
+    private final Object document = new Object();
 
     public RenderableData(Proximity proximity, TemplateSource.Compound source, Element root, JsonObject card) {
         this.proximity = proximity;
@@ -89,17 +105,47 @@ public final class RenderableData extends JsonObject implements TemplateSource {
         return this.gradients.values();
     }
 
-    public List<Symbol> getApplicable(String text) {
-        List<Symbol> result = null;
+    public SymbolMatcher getSymbolMatcher() {
+        SymbolMatcher matcher = this.symbolMatcher;
 
-        for (Symbol symbol : this.symbols) {
-            if (symbol.anyMatches(this, text)) {
-                if (result == null) result = new ArrayList<>();
-                result.add(symbol);
+        if (matcher == null) {
+            List<Symbol> applicable = new ArrayList<>();
+
+            for (Symbol symbol : this.symbols) {
+                if (symbol.isApplicable(this)) {
+                    applicable.add(symbol);
+                }
+            }
+
+            matcher = applicable.isEmpty() ? SymbolMatcher.EMPTY : new SymbolMatcher(applicable);
+            this.symbolMatcher = matcher;
+        }
+
+        return matcher;
+    }
+
+    /**
+     * Returns a value computed from this card and the given element, computing it the first time it's asked for. The
+     * key must capture everything else the value depends on. Values are forgotten whenever the card is modified.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getDerived(XMLElement element, Object key, Supplier<T> supplier) {
+        Pair<Element, Object> pair = new Pair<>(element.wrapped, key);
+        Object value = this.derived.get(pair);
+
+        if (value == null) {
+            value = supplier.get();
+
+            Object existing = this.derived.putIfAbsent(pair, value);
+
+            if (existing != null) {
+                value = existing;
             }
+        } else {
+            Metrics.DERIVED_REUSED.increment();
         }
 
-        return result == null ? Collections.emptyList() : result;
+        return (T) value;
     }
 
     public Result<Void> render(StatefulGraphics graphics) {
@@ -119,18 +165,35 @@ public final class RenderableData extends JsonObject implements TemplateSource {
                 }
             });
 
+            synchronized (this.document) {
+                this.wrappers = new HashMap<>();
+            }
+
             return this.root.apply("Layers", (Function<XMLElement, Result<Void>>) layers -> {
                 List<String> errors = new ArrayList<>(0);
+                List<Pair<XMLElement, LayerRenderer>> children = new ArrayList<>();
 
                 layers.iterate((layer, i) -> {
                     LayerRenderer renderable = this.layerRenderers.get(layer.getTagName());
 
                     if (renderable != null) {
-                        renderable.render(this, layer, graphics, null, true, new Box<>(0F), null)
-                                .ifError(errors::add);
+                        children.add(new Pair<>(layer, renderable));
                     }
                 });
 
+                List<Rectangles> occluders = LayerRenderer.getOccluders(this, graphics, children);
+
+                if (Values.PARALLEL_LAYERS.exists(this) && Values.PARALLEL_LAYERS.get(this)) {
+                    LayerScheduler.render(this, graphics, children, occluders, errors);
+                } else {
+                    for (int i = 0; i < children.size(); ++i) {
+                        graphics.pushOccluders(occluders.get(i));
+                        children.get(i).right().render(this, children.get(i).left(), graphics, null, true, new Box<>(0F), null)
+                                .ifError(errors::add);
+                        graphics.pop();
+                    }
+                }
+
                 return errors.isEmpty() ? Result.of(null)
                         : Result.error("Error(s) rendering cards:\n\t%s", String.join("\n\t", errors));
             }).orElse(Result.of(null));
@@ -384,16 +447,41 @@ public final class RenderableData extends JsonObject implements TemplateSource {
         return path;
     }
 
+    private XMLElement wrap(XMLElement parent, Element element) {
+        synchronized (this.document) {
+            if (this.wrappers == null) {
+                return new XMLElement(parent, element);
+            }
+
+            XMLElement wrapper = this.wrappers.get(element);
+
+            if (wrapper == null) {
+                // Not computeIfAbsent, since building a wrapper visits, and so wraps, its children.
+                wrapper = new XMLElement(parent, element);
+                this.wrappers.put(element, wrapper);
+            }
+
+            return wrapper;
+        }
+    }
+
     public final class XMLElement {
         private final Element wrapped;
         private final Map<LayerProperty<?>, Object> properties = new WeakHashMap<>();
         private final Deque<Pair<String, String>> attributes = new ArrayDeque<>();
+        private final Deque<Pair<LayerProperty<?>, Object>> pushedProperties = new ArrayDeque<>();
         private final XMLElement parent;
 
         public XMLElement(XMLElement parent, Element wrapped) {
             this.parent = parent;
             this.wrapped = wrapped;
 
+            synchronized (RenderableData.this.document) {
+                this.applyModifiers();
+            }
+        }
+
+        private void applyModifiers() {
             this.iterate("AttributeModifier", (element, i) -> {
                 List<String> errors = new ArrayList<>();
                 List<CardPredicate> predicates = new ArrayList<>();
@@ -443,6 +531,8 @@ public final class RenderableData extends JsonObject implements TemplateSource {
 
                 if (value.isOk()) {
                     RenderableData.this.add(element.getAttribute("key").split("\\."), value.get());
+                    RenderableData.this.symbolMatcher = null;
+                    RenderableData.this.derived.clear();
                 } else {
                     Proximity.LOG.warn("Error parsing value:\n\t{}", value.getError());
                 }
@@ -488,7 +578,7 @@ public final class RenderableData extends JsonObject implements TemplateSource {
         }
 
         public String getId() {
-            return id(this.parent == null ? "" : this.parent.getId(), this.wrapped.getAttribute("id"));
+            return id(this.parent == null ? "" : this.parent.getId(), this.getAttributeRaw("id"));
         }
 
         public String getTagName() {
@@ -496,11 +586,13 @@ public final class RenderableData extends JsonObject implements TemplateSource {
         }
 
         public boolean hasAttribute(String name) {
-            return this.wrapped.hasAttribute(name);
+            synchronized (RenderableData.this.document) {
+                return this.wrapped.hasAttribute(name);
+            }
         }
 
         public String getAttribute(String name) {
-            String value = this.wrapped.getAttribute(name);
+            String value = this.getAttributeRaw(name);
             Matcher matcher = SUBSTITUTE.matcher(value);
             StringBuilder result = new StringBuilder();
 
@@ -577,16 +669,20 @@ public final class RenderableData extends JsonObject implements TemplateSource {
         }
 
         public void setAttribute(String name, String value) {
-            if (value == null) {
-                this.wrapped.removeAttribute(name);
-            } else {
-                this.wrapped.setAttribute(name, value);
+            synchronized (RenderableData.this.document) {
+                if (value == null) {
+                    this.wrapped.removeAttribute(name);
+                } else {
+                    this.wrapped.setAttribute(name, value);
+                }
             }
         }
 
         public void pushAttribute(String name, String value) {
-            this.attributes.addFirst(new Pair<>(name, this.wrapped.hasAttribute(name) ? this.wrapped.getAttribute(name) : null));
-            this.setAttribute(name, value);
+            synchronized (RenderableData.this.document) {
+                this.attributes.addFirst(new Pair<>(name, this.wrapped.hasAttribute(name) ? this.wrapped.getAttribute(name) : null));
+                this.setAttribute(name, value);
+            }
         }
 
         public void pushAttribute(String name, int value) {
@@ -620,68 +716,88 @@ public final class RenderableData extends JsonObject implements TemplateSource {
             this.properties.put(property, value);
         }
 
-        public int iterate(String tagName, BiConsumer<XMLElement, Integer> elementConsumer) {
-            return this.iterate(this.wrapped.getElementsByTagName(tagName), elementConsumer);
+        /**
+         * Sets a property until the matching {@link #popProperty()}, which restores whatever this element had before.
+         */
+        public <T> void pushProperty(LayerProperty<T> property, T value) {
+            this.pushedProperties.addFirst(new Pair<>(property, this.properties.containsKey(property) ? this.properties.get(property) : ABSENT));
+            this.properties.put(property, value);
         }
 
-        public int iterate(BiConsumer<XMLElement, Integer> elementConsumer) {
-            return this.iterate(this.wrapped.getChildNodes(), elementConsumer);
+        public void popProperty() {
+            Pair<LayerProperty<?>, Object> property = this.pushedProperties.removeFirst();
+
+            if (property.right() == ABSENT) {
+                this.properties.remove(property.left());
+            } else {
+                this.properties.put(property.left(), property.right());
+            }
         }
 
-        private int iterate(NodeList nodes, BiConsumer<XMLElement, Integer> elementConsumer) {
-            int index = 0;
+        public int iterate(String tagName, BiConsumer<XMLElement, Integer> elementConsumer) {
+            return this.iterate(this.getChildren(tagName), elementConsumer);
+        }
 
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Node node = nodes.item(i);
+        public int iterate(BiConsumer<XMLElement, Integer> elementConsumer) {
+            return this.iterate(this.getChildren(null), elementConsumer);
+        }
 
-                if (node instanceof Element && node.getParentNode() == this.wrapped) {
-                    elementConsumer.accept(new XMLElement(this, (Element) node), index++);
-                }
+        private int iterate(List<Element> children, BiConsumer<XMLElement, Integer> elementConsumer) {
+            for (int i = 0; i < children.size(); ++i) {
+                elementConsumer.accept(RenderableData.this.wrap(this, children.get(i)), i);
             }
 
-            return index;
+            return children.size();
         }
 
-        public <T> Optional<T> apply(Function<XMLElement, T> function) {
+        /**
+         * Collects the direct child elements, optionally only those with the given tag name. The list is a snapshot,
+         * so callers can work with the children without holding the lock.
+         */
+        private List<Element> getChildren(String tagName) {
+            synchronized (RenderableData.this.document) {
+                NodeList nodes = tagName == null ? this.wrapped.getChildNodes() : this.wrapped.getElementsByTagName(tagName);
+                List<Element> children = new ArrayList<>();
+
+                for (int i = 0; i < nodes.getLength(); ++i) {
+                    Node node = nodes.item(i);
 
-            NodeList nodes = this.wrapped.getChildNodes();
+                    if (node instanceof Element && node.getParentNode() == this.wrapped) {
+                        children.add((Element) node);
+                    }
+                }
 
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Node node = nodes.item(i);
+                return children;
+            }
+        }
 
-                if (node instanceof Element && node.getParentNode() == this.wrapped) {
-                    return Optional.ofNullable(function.apply(new XMLElement(this, (Element) node)));
+        private Element getFirstChild(String tagName) {
+            for (Element child : this.getChildren(null)) {
+                if (tagName == null || child.getTagName().equals(tagName)) {
+                    return child;
                 }
             }
 
-            return Optional.empty();
+            return null;
         }
 
-        public <T> Optional<T> apply(String tagName, Function<XMLElement, T> function) {
-
-            NodeList nodes = this.wrapped.getChildNodes();
+        public <T> Optional<T> apply(Function<XMLElement, T> function) {
+            Element child = this.getFirstChild(null);
 
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Node node = nodes.item(i);
+            return child == null ? Optional.empty() : Optional.ofNullable(function.apply(RenderableData.this.wrap(this, child)));
+        }
 
-                if (node instanceof Element && node.getParentNode() == this.wrapped && ((Element) node).getTagName().equals(tagName)) {
-                    return Optional.ofNullable(function.apply(new XMLElement(this, (Element) node)));
-                }
-            }
+        public <T> Optional<T> apply(String tagName, Function<XMLElement, T> function) {
+            Element child = this.getFirstChild(tagName);
 
-            return Optional.empty();
+            return child == null ? Optional.empty() : Optional.ofNullable(function.apply(RenderableData.this.wrap(this, child)));
         }
 
         public void apply(String tagName, Consumer<XMLElement> consumer) {
-            NodeList nodes = this.wrapped.getChildNodes();
-
-            for (int i = 0; i < nodes.getLength(); ++i) {
-                Node node = nodes.item(i);
+            Element child = this.getFirstChild(tagName);
 
-                if (node instanceof Element && node.getParentNode() == this.wrapped && ((Element) node).getTagName().equals(tagName)) {
-                    consumer.accept(new XMLElement(this, (Element) node));
-                    break;
-                }
+            if (child != null) {
+                consumer.accept(RenderableData.this.wrap(this, child));
             }
         }
 
@@ -694,7 +810,9 @@ public final class RenderableData extends JsonObject implements TemplateSource {
         }
 
         public String getAttributeRaw(String key) {
-            return this.wrapped.getAttribute(key);
+            synchronized (RenderableData.this.document) {
+                return this.wrapped.getAttribute(key);
+            }
         }
     }
 }
@@ -1,5 +1,6 @@
 package dev.hephaestus.proximity.xml;
 
+import dev.hephaestus.proximity.Proximity;
 import dev.hephaestus.proximity.cards.predicates.CardPredicate;
 import dev.hephaestus.proximity.cards.predicates.IsEquals;
 import dev.hephaestus.proximity.cards.predicates.IsPresent;
@@ -10,6 +11,8 @@ import dev.hephaestus.proximity.util.ParsingUtil;
 import dev.hephaestus.proximity.util.Result;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
@@ -24,6 +27,13 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 
 public final class XMLUtil {
+    private static final SAXParserFactory SAX_PARSERS = SAXParserFactory.newInstance();
+    private static final DocumentBuilderFactory DOCUMENT_BUILDERS = DocumentBuilderFactory.newInstance();
+    // Factories and parsers aren't thread safe, but they're expensive to create and can be reset between documents, so
+    // each thread keeps its own.
+    private static final ThreadLocal<SAXParser> SAX_PARSER = ThreadLocal.withInitial(XMLUtil::createSAXParser);
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(XMLUtil::createDocumentBuilder);
+
     private XMLUtil() {}
 
     public static <T> void apply(RenderableData.XMLElement element, String attribute, Function<String, T> func, Consumer<T> consumer) {
@@ -135,27 +145,95 @@ public final class XMLUtil {
         }
     }
 
+    /**
+     * Inserts the elements of each file named by the root's {@code Imports} at the start of the root.
+     */
+    public static Result<Element> resolveImports(Element root, TemplateSource source) {
+        Node firstChild = root.getFirstChild();
+        Document document = root.getOwnerDocument();
+        NodeList importsList = root.getElementsByTagName("Imports");
+
+        for (int i = 0; i < importsList.getLength(); ++i) {
+            Node n = importsList.item(i);
+
+            if (n instanceof Element) {
+                NodeList imports = n.getChildNodes();
+
+                for (int j = 0; j < imports.getLength(); ++j) {
+                    n = imports.item(j);
+
+                    if (n instanceof Element element) {
+                        String src = element.getAttribute("src") + ".xml";
+
+                        load(source, src)
+                                .ifError(Proximity.LOG::warn)
+                                .then(imported -> {
+                                    NodeList children = imported.getChildNodes();
+
+                                    for (int k = 0; k < children.getLength(); ++k) {
+                                        Node m = children.item(k);
+
+                                        if (m instanceof Element e) {
+                                            root.insertBefore(document.adoptNode(e), firstChild);
+                                        }
+                                    }
+
+                                    return Result.of((Void) null);
+                                });
+                    }
+                }
+            }
+        }
+
+        return Result.of(root);
+    }
+
     public static Document read(final InputStream is) throws IOException, SAXException {
-        final Document doc;
-        SAXParser parser;
+        final Document doc = getDocumentBuilder().newDocument();
+        SAXParser parser = SAX_PARSER.get();
 
         try {
-            final SAXParserFactory factory = SAXParserFactory.newInstance();
-            parser = factory.newSAXParser();
-            final DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-            final DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-            doc = docBuilder.newDocument();
-        } catch (final ParserConfigurationException e) {
-            throw new RuntimeException("Can't create SAX parser / DOM builder.", e);
+            XMLReader reader = parser.getXMLReader();
+            XMLHandler handler = new XMLHandler(doc);
+
+            reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+
+            parser.parse(is, handler);
+        } finally {
+            parser.reset();
         }
 
-        XMLReader reader = parser.getXMLReader();
-        XMLHandler handler = new XMLHandler(doc);
+        return doc;
+    }
 
-        reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    /**
+     * Returns this thread's document builder, reset and ready to parse or create a new document.
+     */
+    public static DocumentBuilder getDocumentBuilder() {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
 
-        parser.parse(is, handler);
+        builder.reset();
 
-        return doc;
+        return builder;
+    }
+
+    private static SAXParser createSAXParser() {
+        synchronized (SAX_PARSERS) {
+            try {
+                return SAX_PARSERS.newSAXParser();
+            } catch (final ParserConfigurationException | SAXException e) {
+                throw new RuntimeException("Can't create SAX parser.", e);
+            }
+        }
+    }
+
+    private static DocumentBuilder createDocumentBuilder() {
+        synchronized (DOCUMENT_BUILDERS) {
+            try {
+                return DOCUMENT_BUILDERS.newDocumentBuilder();
+            } catch (final ParserConfigurationException e) {
+                throw new RuntimeException("Can't create DOM builder.", e);
+            }
+        }
     }
 }
@@ -0,0 +1,56 @@
+package dev.hephaestus.proximity.effects;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Times each kernel over a card sized raster with both implementations, on one thread. Run it with
+ * {@code gradlew benchmarkKernels}.
+ */
+public final class PixelKernelsBenchmark {
+    private static final int WARMUP = 20, RUNS = 50;
+
+    public static void main(String[] args) {
+        PixelKernels scalar = new ScalarPixelKernels();
+        PixelKernels vector = new VectorPixelKernels();
+        int[] mask = PixelKernelsTest.pixels(1);
+        int[] erase = PixelKernelsTest.pixels(2);
+        int[] premultiplied = PixelKernelsTest.premultiplied(3);
+        float[] kernel = PixelKernelsTest.kernel(8);
+        int[] transposed = new int[premultiplied.length];
+        int width = PixelKernelsTest.WIDTH, height = PixelKernelsTest.HEIGHT;
+
+        System.out.printf("%dx%d, %s vs %s%n", width, height, scalar.getName(), vector.getName());
+
+        time("multiplyAlpha", scalar, vector, premultiplied, (kernels, pixels) -> kernels.multiplyAlpha(pixels, mask, erase, 0, pixels.length));
+        time("multiplyAlphaPremultiplied", scalar, vector, premultiplied, (kernels, pixels) -> kernels.multiplyAlphaPremultiplied(pixels, mask, erase, 0, pixels.length));
+        time("premultiply", scalar, vector, PixelKernelsTest.pixels(4), (kernels, pixels) -> kernels.premultiply(pixels, 0, pixels.length));
+        time("unpremultiply", scalar, vector, premultiplied, (kernels, pixels) -> kernels.unpremultiply(pixels, 0, pixels.length));
+        time("convolveAndTranspose", scalar, vector, premultiplied, (kernels, pixels) -> kernels.convolveAndTranspose(kernel, pixels, transposed, width, height, true));
+    }
+
+    private static void time(String name, PixelKernels scalar, PixelKernels vector, int[] input, BiConsumer<PixelKernels, int[]> operation) {
+        System.out.printf("%-28s %8.2f ms %8.2f ms%n", name, time(scalar, input, operation), time(vector, input, operation));
+    }
+
+    private static double time(PixelKernels kernels, int[] input, BiConsumer<PixelKernels, int[]> operation) {
+        int[] pixels = new int[input.length];
+
+        for (int i = 0; i < WARMUP; ++i) {
+            System.arraycopy(input, 0, pixels, 0, input.length);
+            operation.accept(kernels, pixels);
+        }
+
+        long total = 0;
+
+        for (int i = 0; i < RUNS; ++i) {
+            System.arraycopy(input, 0, pixels, 0, input.length);
+
+            long start = System.nanoTime();
+
+            operation.accept(kernels, pixels);
+            total += System.nanoTime() - start;
+        }
+
+        return total / 1e6 / RUNS;
+    }
+}
@@ -0,0 +1,132 @@
+package dev.hephaestus.proximity.effects;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks that the vector kernels give exactly the same pixels as the scalar ones on a card sized raster. Ranges that
+ * don't start or end on a vector boundary are included so the scalar tails are covered too.
+ */
+class PixelKernelsTest {
+    static final int WIDTH = 1500, HEIGHT = 2100;
+
+    private static final PixelKernels SCALAR = new ScalarPixelKernels();
+    private static final PixelKernels VECTOR = new VectorPixelKernels();
+
+    @Test
+    void multiplyAlpha() {
+        int[] mask = pixels(1), erase = pixels(2);
+
+        for (int[][] modifiers : new int[][][] { { null, null }, { mask, null }, { null, erase }, { mask, erase } }) {
+            assertIdentical(pixels(3), (kernels, pixels) -> kernels.multiplyAlpha(pixels, modifiers[0], modifiers[1], 0, pixels.length));
+            assertIdentical(pixels(3), (kernels, pixels) -> kernels.multiplyAlpha(pixels, modifiers[0], modifiers[1], 3, pixels.length - 10));
+        }
+    }
+
+    @Test
+    void multiplyAlphaPremultiplied() {
+        int[] mask = pixels(1), erase = pixels(2);
+
+        for (int[][] modifiers : new int[][][] { { null, null }, { mask, null }, { null, erase }, { mask, erase } }) {
+            assertIdentical(premultiplied(3), (kernels, pixels) -> kernels.multiplyAlphaPremultiplied(pixels, modifiers[0], modifiers[1], 0, pixels.length));
+            assertIdentical(premultiplied(3), (kernels, pixels) -> kernels.multiplyAlphaPremultiplied(pixels, modifiers[0], modifiers[1], 3, pixels.length - 10));
+        }
+    }
+
+    @Test
+    void premultiply() {
+        assertIdentical(pixels(4), (kernels, pixels) -> kernels.premultiply(pixels, 0, pixels.length));
+        assertIdentical(pixels(4), (kernels, pixels) -> kernels.premultiply(pixels, 5, pixels.length - 12));
+    }
+
+    @Test
+    void unpremultiply() {
+        assertIdentical(premultiplied(5), (kernels, pixels) -> kernels.unpremultiply(pixels, 0, pixels.length));
+        assertIdentical(premultiplied(5), (kernels, pixels) -> kernels.unpremultiply(pixels, 5, pixels.length - 12));
+    }
+
+    @Test
+    void convolveAndTranspose() {
+        for (int radius : new int[] { 1, 4, 25 }) {
+            float[] kernel = kernel(radius);
+
+            for (boolean alpha : new boolean[] { true, false }) {
+                int[] scalar = convolve(SCALAR, kernel, alpha);
+                int[] vector = convolve(VECTOR, kernel, alpha);
+
+                assertArrayEquals(scalar, vector, "radius " + radius + ", alpha " + alpha);
+            }
+        }
+    }
+
+    private static int[] convolve(PixelKernels kernels, float[] kernel, boolean alpha) {
+        int[] in = premultiplied(6);
+        int[] transposed = new int[in.length];
+        int[] out = new int[in.length];
+
+        kernels.convolveAndTranspose(kernel, in, transposed, WIDTH, HEIGHT, alpha);
+        kernels.convolveAndTranspose(kernel, transposed, out, HEIGHT, WIDTH, alpha);
+
+        return out;
+    }
+
+    private static void assertIdentical(int[] input, BiConsumer<PixelKernels, int[]> operation) {
+        int[] scalar = input.clone();
+        int[] vector = input.clone();
+
+        operation.accept(SCALAR, scalar);
+        operation.accept(VECTOR, vector);
+
+        assertArrayEquals(scalar, vector);
+    }
+
+    /**
+     * Random pixels, with fully transparent and fully opaque ones mixed in since several kernels special case them.
+     */
+    static int[] pixels(long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[WIDTH * HEIGHT];
+
+        for (int i = 0; i < pixels.length; ++i) {
+            int argb = random.nextInt();
+
+            pixels[i] = switch (random.nextInt(8)) {
+                case 0 -> argb & 0x00FFFFFF;
+                case 1 -> argb | 0xFF000000;
+                default -> argb;
+            };
+        }
+
+        return pixels;
+    }
+
+    static int[] premultiplied(long seed) {
+        int[] pixels = pixels(seed);
+
+        SCALAR.premultiply(pixels, 0, pixels.length);
+
+        return pixels;
+    }
+
+    static float[] kernel(int radius) {
+        float[] kernel = new float[radius * 2 + 1];
+        float sigma = radius / 3F + 0.5F, total = 0;
+
+        for (int i = 0; i < kernel.length; ++i) {
+            int x = i - radius;
+
+            kernel[i] = (float) Math.exp(-x * x / (2 * sigma * sigma));
+            total += kernel[i];
+        }
+
+        for (int i = 0; i < kernel.length; ++i) {
+            kernel[i] /= total;
+        }
+
+        return kernel;
+    }
+}